@@ -0,0 +1,82 @@
+package translation;
+
+import translation.model.BackboneCoordinates;
+import translation.model.Chain;
+
+/**
+ * The residue pairing rules shared by the detectors, and the test that each criterion
+ * for a bond gives.
+ *
+ * A pair of residues (first, second) is tested if they are at least three apart, both
+ * have all of N, H, C and O, and the second is a standard amino acid that is not the last
+ * residue in the chain. Whether a bond is accepted is up to the criterion, in
+ * accept(BackboneCoordinates, int, int).
+ */
+public abstract class AbstractHBondDetector implements HBondDetector {
+
+    // if true, the first residue of a pair must also be a standard amino acid
+    private boolean standardFirstOnly;
+
+    public AbstractHBondDetector() {
+        this.standardFirstOnly = false;
+    }
+
+    public void setStandardFirstOnly(boolean standardFirstOnly) {
+        this.standardFirstOnly = standardFirstOnly;
+    }
+
+    /**
+     * If the bond from the N-H of the donor to the C=O of the acceptor is accepted.
+     */
+    public abstract boolean accept(BackboneCoordinates backbone, int donor, int acceptor);
+
+    /**
+     * The atoms compared in the first screen of a search : the acceptor's are put in a
+     * grid, and each donor's is searched around, for those within the screen distance.
+     * By default these are the H and O; the distance is up to the criterion.
+     */
+    protected int donorScreenAtom() {
+        return BackboneCoordinates.H;
+    }
+
+    protected int acceptorScreenAtom() {
+        return BackboneCoordinates.O;
+    }
+
+    protected abstract double screenDistance();
+
+    // which residues can be the first of a pair
+    protected boolean[] usableAsFirst(Chain chain, BackboneCoordinates backbone) {
+        int length = chain.length();
+        boolean[] usable = new boolean[length];
+        for (int i = 0; i < length; i++) {
+            usable[i] = backbone.hasHBondAtoms(i) && (!this.standardFirstOnly || chain.getResidueByAbsoluteNumbering(i).isStandardAminoAcid());
+        }
+        return usable;
+    }
+
+    // which residues can be the second of a pair
+    protected boolean[] usableAsSecond(Chain chain, BackboneCoordinates backbone) {
+        int length = chain.length();
+        boolean[] usable = new boolean[length];
+        for (int i = 0; i < length - 1; i++) {
+            usable[i] = backbone.hasHBondAtoms(i) && chain.getResidueByAbsoluteNumbering(i).isStandardAminoAcid();
+        }
+        return usable;
+    }
+
+    /**
+     * Add the bond from donor to acceptor to the chain's bond table, which is where the
+     * chain and both residues find their bonds.
+     */
+    protected void addHBond(Chain chain, BackboneCoordinates backbone, int donor, int acceptor) {
+        int N = BackboneCoordinates.N;
+        int H = BackboneCoordinates.H;
+        int O = BackboneCoordinates.O;
+        int C = BackboneCoordinates.C;
+        double distance = backbone.distance(H, donor, O, acceptor);
+        double nhoAngle = backbone.angle(N, donor, H, donor, O, acceptor);
+        double hocAngle = backbone.angle(H, donor, O, acceptor, C, acceptor);
+        chain.getHBondTable().add(donor, acceptor, distance, nhoAngle, hocAngle);
+    }
+}
@@ -0,0 +1,247 @@
+package translation;
+
+import java.util.Arrays;
+
+/**
+ * A uniform grid of cells over a set of atom positions, so that the atoms near a point
+ * can be found by looking in the surrounding cells, instead of testing every atom.
+ *
+ * Only the occupied cells are stored, as a sorted array of cell keys, so a long thin
+ * chain costs no more than a compact one. */
+public class AtomGrid {
+
+    // bits per axis in a cell key; the rest of a packed sort key is the atom index
+    private static final int AXIS_BITS = 14;
+
+    private static final int MAX_CELLS_PER_AXIS = (1 << AXIS_BITS) - 1;
+
+    private static final int INDEX_BITS = 21;
+
+    private double cellSize;
+
+    private double minX;
+
+    private double minY;
+
+    private double minZ;
+
+    // the distinct occupied cells, and where their atoms start in members
+    private long[] cellKeys;
+
+    private int[] cellStarts;
+
+    private int[] members;
+
+    // the coordinates of the members, in the same order, so that each cell is a contiguous block
+    private double[] memberX;
+
+    private double[] memberY;
+
+    private double[] memberZ;
+
+    /**
+     * @param x the x coordinates, indexed by atom (or residue) number
+     * @param y the y coordinates
+     * @param z the z coordinates
+     * @param include which of the atoms to put in the grid
+     * @param cutoff the largest distance that will be searched for
+     */
+    public AtomGrid(double[] x, double[] y, double[] z, boolean[] include, double cutoff) {
+        if (x.length >= (1 << INDEX_BITS)) {
+            throw new IllegalArgumentException("Too many atoms for the grid : " + x.length);
+        }
+
+        int count = 0;
+        this.minX = Double.MAX_VALUE;
+        this.minY = Double.MAX_VALUE;
+        this.minZ = Double.MAX_VALUE;
+        double maxExtent = 0;
+        double maxX = -Double.MAX_VALUE;
+        double maxY = -Double.MAX_VALUE;
+        double maxZ = -Double.MAX_VALUE;
+        for (int i = 0; i < x.length; i++) {
+            if (include[i]) {
+                this.minX = Math.min(this.minX, x[i]);
+                this.minY = Math.min(this.minY, y[i]);
+                this.minZ = Math.min(this.minZ, z[i]);
+                maxX = Math.max(maxX, x[i]);
+                maxY = Math.max(maxY, y[i]);
+                maxZ = Math.max(maxZ, z[i]);
+                count++;
+            }
+        }
+        if (count > 0) {
+            maxExtent = Math.max(maxX - this.minX, Math.max(maxY - this.minY, maxZ - this.minZ));
+        }
+
+        // a little larger than the cutoff, so that rounding can never put a close pair two cells apart
+        this.cellSize = (cutoff * 1.001) + 1e-6;
+        if (maxExtent / this.cellSize >= MAX_CELLS_PER_AXIS) {
+            this.cellSize = maxExtent / (MAX_CELLS_PER_AXIS - 1);
+        }
+
+        // sort the atoms by cell, packing the index under the key
+        long[] packed = new long[count];
+        int k = 0;
+        for (int i = 0; i < x.length; i++) {
+            if (include[i]) {
+                packed[k++] = (this.cellKey(this.cell(x[i], this.minX), this.cell(y[i], this.minY), this.cell(z[i], this.minZ)) << INDEX_BITS) | i;
+            }
+        }
+        Arrays.sort(packed);
+
+        int numberOfCells = 0;
+        for (int i = 0; i < count; i++) {
+            if (i == 0 || (packed[i] >>> INDEX_BITS) != (packed[i - 1] >>> INDEX_BITS)) {
+                numberOfCells++;
+            }
+        }
+        this.cellKeys = new long[numberOfCells];
+        this.cellStarts = new int[numberOfCells + 1];
+        this.members = new int[count];
+        this.memberX = new double[count];
+        this.memberY = new double[count];
+        this.memberZ = new double[count];
+        int cellIndex = -1;
+        for (int i = 0; i < count; i++) {
+            long key = packed[i] >>> INDEX_BITS;
+            if (i == 0 || key != this.cellKeys[cellIndex]) {
+                cellIndex++;
+                this.cellKeys[cellIndex] = key;
+                this.cellStarts[cellIndex] = i;
+            }
+            int member = (int) (packed[i] & ((1 << INDEX_BITS) - 1));
+            this.members[i] = member;
+            this.memberX[i] = x[member];
+            this.memberY[i] = y[member];
+            this.memberZ[i] = z[member];
+        }
+        this.cellStarts[numberOfCells] = count;
+    }
+
+    /**
+     * Find the atoms in the cells around a point. This includes every atom closer than
+     * the cutoff, and some further away, so the caller still has to test the distance.
+     *
+     * @param near filled with the indices of the atoms found; must be large enough for all of them
+     * @return the number of atoms found
+     */
+    public int findNear(double x, double y, double z, int[] near) {
+        int cx = this.cell(x, this.minX);
+        int cy = this.cell(y, this.minY);
+        int cz = this.cell(z, this.minZ);
+        int count = 0;
+        for (int i = cx - 1; i <= cx + 1; i++) {
+            if (i < 0 || i > MAX_CELLS_PER_AXIS) {
+                continue;
+            }
+            for (int j = cy - 1; j <= cy + 1; j++) {
+                if (j < 0 || j > MAX_CELLS_PER_AXIS) {
+                    continue;
+                }
+                for (int k = cz - 1; k <= cz + 1; k++) {
+                    if (k < 0 || k > MAX_CELLS_PER_AXIS) {
+                        continue;
+                    }
+                    int cellIndex = Arrays.binarySearch(this.cellKeys, this.cellKey(i, j, k));
+                    if (cellIndex >= 0) {
+                        for (int m = this.cellStarts[cellIndex]; m < this.cellStarts[cellIndex + 1]; m++) {
+                            near[count++] = this.members[m];
+                        }
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Find the atoms in the cells around a point that are within (or very nearly within)
+     * a distance of it. This is a screen : the caller should still test the exact distance,
+     * but most of the atoms that findNear would return are removed here.
+     *
+     * Each cell's atoms are a contiguous block of coordinates, and the cells along z are
+     * adjacent, so each column of cells is screened as one block.
+     *
+     * @param distance the distance to screen by; no greater than the cutoff of the grid
+     * @param near filled with the indices of the atoms found; must be large enough for all of them
+     * @return the number of atoms found
+     */
+    public int findWithin(double x, double y, double z, double distance, int[] near) {
+        // a little loose, so that rounding never screens out an atom at exactly the distance
+        double limit = (distance * distance) * (1 + 1e-9);
+        double[] mx = this.memberX;
+        double[] my = this.memberY;
+        double[] mz = this.memberZ;
+        int[] members = this.members;
+
+        int cx = this.cell(x, this.minX);
+        int cy = this.cell(y, this.minY);
+        int cz = this.cell(z, this.minZ);
+        int count = 0;
+        for (int i = cx - 1; i <= cx + 1; i++) {
+            if (i < 0 || i > MAX_CELLS_PER_AXIS) {
+                continue;
+            }
+            for (int j = cy - 1; j <= cy + 1; j++) {
+                if (j < 0 || j > MAX_CELLS_PER_AXIS) {
+                    continue;
+                }
+
+                // the cells along z have adjacent keys, and so their atoms are one block
+                int kMin = Math.max(cz - 1, 0);
+                int kMax = Math.min(cz + 1, MAX_CELLS_PER_AXIS);
+                if (kMin > kMax) {
+                    continue;
+                }
+                int firstCell = Arrays.binarySearch(this.cellKeys, this.cellKey(i, j, kMin));
+                if (firstCell < 0) {
+                    firstCell = -firstCell - 1;
+                }
+                long lastKey = this.cellKey(i, j, kMax);
+                int endCell = firstCell;
+                while (endCell < this.cellKeys.length && this.cellKeys[endCell] <= lastKey) {
+                    endCell++;
+                }
+
+                int start = this.cellStarts[firstCell];
+                int end = this.cellStarts[endCell];
+                count = AtomGrid.screenBlock(x, y, z, limit, mx, my, mz, members, start, end, near, count);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Screens one block of member coordinates against a point, appending the members
+     * closer than the limit (a squared distance) to near. The loop has no branches - every atom is written to
+     * near, and the count only moves on past those that are close enough - so that the
+     * JIT can keep it tight.
+     */
+    private static int screenBlock(double x, double y, double z, double limit, double[] mx, double[] my, double[] mz, int[] members, int start, int end, int[] near, int count) {
+        for (int m = start; m < end; m++) {
+            double dx = x - mx[m];
+            double dy = y - my[m];
+            double dz = z - mz[m];
+            near[count] = members[m];
+            count += ((dx * dx + dy * dy + dz * dz) < limit) ? 1 : 0;
+        }
+        return count;
+    }
+
+    // points outside the grid get a cell index that is out of range, rather than wrapping
+    private int cell(double value, double min) {
+        double c = Math.floor((value - min) / this.cellSize);
+        if (c < -1) {
+            return -2;
+        } else if (c > MAX_CELLS_PER_AXIS + 1) {
+            return MAX_CELLS_PER_AXIS + 2;
+        } else {
+            return (int) c;
+        }
+    }
+
+    private long cellKey(int i, int j, int k) {
+        return ((long) i << (2 * AXIS_BITS)) | ((long) j << AXIS_BITS) | k;
+    }
+}
@@ -0,0 +1,167 @@
+package translation;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * An InputStream that reads its source on a separate thread, handing the bytes over
+ * in large chunks. Wrapping a GZIPInputStream in one of these means that decompression
+ * and parsing run side by side, instead of one after the other.
+ */
+public class BackgroundInputStream extends InputStream {
+
+    private static final int CHUNK_SIZE = 256 * 1024;
+
+    private static final int QUEUED_CHUNKS = 8;
+
+    // marks the end of the source; never handed out
+    private static final byte[] END = new byte[0];
+
+    private BlockingQueue<byte[]> chunks;
+
+    private Thread reader;
+
+    private volatile IOException error;
+
+    private byte[] current;
+
+    private int currentLength;
+
+    private int position;
+
+    private boolean finished;
+
+    public BackgroundInputStream(final InputStream source, String name) {
+        this.chunks = new ArrayBlockingQueue<byte[]>(QUEUED_CHUNKS);
+        this.current = null;
+        this.currentLength = 0;
+        this.position = 0;
+        this.finished = false;
+        this.error = null;
+
+        this.reader = new Thread(new Runnable() {
+            public void run() {
+                BackgroundInputStream.this.fill(source);
+            }
+        }, "Background reader : " + name);
+        this.reader.setDaemon(true);
+        this.reader.start();
+    }
+
+    private void fill(InputStream source) {
+        try {
+            while (true) {
+                byte[] chunk = new byte[CHUNK_SIZE];
+                int length = 0;
+                while (length < CHUNK_SIZE) {
+                    int read = source.read(chunk, length, CHUNK_SIZE - length);
+                    if (read == -1) {
+                        break;
+                    }
+                    length += read;
+                }
+                if (length > 0) {
+                    if (length < CHUNK_SIZE) {
+                        byte[] shortChunk = new byte[length];
+                        System.arraycopy(chunk, 0, shortChunk, 0, length);
+                        chunk = shortChunk;
+                    }
+                    this.chunks.put(chunk);
+                }
+                if (length < CHUNK_SIZE) {
+                    break;
+                }
+            }
+        } catch (IOException ioe) {
+            this.error = ioe;
+        } catch (InterruptedException ie) {
+            // closed by the consumer
+            return;
+        } finally {
+            try {
+                source.close();
+            } catch (IOException ioe) {
+                if (this.error == null) {
+                    this.error = ioe;
+                }
+            }
+        }
+
+        try {
+            this.chunks.put(END);
+        } catch (InterruptedException ie) {
+            return;
+        }
+    }
+
+    // make sure that there is something to read in the current chunk; false at the end
+    private boolean nextChunk() throws IOException {
+        while (!this.finished && (this.current == null || this.position == this.currentLength)) {
+            byte[] chunk;
+            try {
+                chunk = this.chunks.take();
+            } catch (InterruptedException ie) {
+                // keep the interrupt, so that a reader thread reading this stream stops too
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for " + this.reader.getName());
+            }
+            if (chunk == END) {
+                this.finished = true;
+                this.current = null;
+            } else {
+                this.current = chunk;
+                this.currentLength = chunk.length;
+                this.position = 0;
+            }
+        }
+        if (this.finished && this.error != null) {
+            throw this.error;
+        }
+        return !this.finished;
+    }
+
+    public int read() throws IOException {
+        if (!this.nextChunk()) {
+            return -1;
+        }
+        return this.current[this.position++] & 0xff;
+    }
+
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (!this.nextChunk()) {
+            return -1;
+        }
+        int count = Math.min(length, this.currentLength - this.position);
+        System.arraycopy(this.current, this.position, bytes, offset, count);
+        this.position += count;
+        return count;
+    }
+
+    public int available() {
+        return (this.current == null) ? 0 : this.currentLength - this.position;
+    }
+
+    public void close() throws IOException {
+        this.reader.interrupt();
+
+        // the reader may have lost the interrupt inside its source, and be blocked putting
+        // a chunk (or the end) on a full queue, so keep the queue empty until it stops
+        while (this.reader.isAlive()) {
+            this.chunks.clear();
+            try {
+                this.reader.join(10);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        this.chunks.clear();
+        this.finished = true;
+        this.current = null;
+    }
+}
@@ -0,0 +1,48 @@
+package translation;
+
+import translation.model.BackboneCoordinates;
+import translation.model.Chain;
+
+/**
+ * Tests every pair of residues in the chain. This is quadratic in the length of the
+ * chain, and is kept as the reference that the faster detectors must agree with.
+ */
+public class BruteForceHBondDetector extends GeometricHBondDetector {
+
+    public BruteForceHBondDetector(double maxHODistance, double minNHOAngle, double minHOCAngle) {
+        super(maxHODistance, minNHOAngle, minHOCAngle);
+    }
+
+    public void findHBonds(Chain chain) {
+        BackboneCoordinates backbone = chain.getBackboneCoordinates();
+        boolean[] usableAsFirst = this.usableAsFirst(chain, backbone);
+        boolean[] usableAsSecond = this.usableAsSecond(chain, backbone);
+        int length = chain.length();
+
+        for (int first = 0; first < length; first++) {
+            if (!usableAsFirst[first]) {
+                continue;
+            }
+            for (int second = first + 3; second < length; second++) {
+                if (!usableAsSecond[second]) {
+                    continue;
+                }
+
+                // bonds from first N-H to second C=O, then from second N-H to first C=O
+                if (this.isBonded(backbone, first, second)) {
+                    this.addHBond(chain, backbone, first, second);
+                }
+                if (this.isBonded(backbone, second, first)) {
+                    this.addHBond(chain, backbone, second, first);
+                }
+            }
+        }
+    }
+
+    private boolean isBonded(BackboneCoordinates backbone, int donor, int acceptor) {
+        double distance = backbone.distance(BackboneCoordinates.H, donor, BackboneCoordinates.O, acceptor);
+        double nhoAngle = backbone.angle(BackboneCoordinates.N, donor, BackboneCoordinates.H, donor, BackboneCoordinates.O, acceptor);
+        double hocAngle = backbone.angle(BackboneCoordinates.H, donor, BackboneCoordinates.O, acceptor, BackboneCoordinates.C, acceptor);
+        return this.accept(distance, nhoAngle, hocAngle);
+    }
+}
@@ -1,57 +1,26 @@
 package translation;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import translation.model.Domain;
 
 public class CATHDomainFileParser {
-    private static Pattern domainPattern = Pattern.compile("((?:\\d)(?:\\s\\s[\\d\\w]\\s+\\d+\\s\\-\\s[\\w\\d]\\s+\\d+\\s\\-)+)+");
-    private static Pattern segmentPattern = Pattern.compile("[\\d\\w]\\s+(\\d+)\\s\\-\\s[\\w\\d]\\s+(\\d+)\\s\\-");
 
+    // the whole file, read in parallel into a DomainTable
     public static Map<String, ChainDomainMap> parseWholeFile(String filename) throws IOException {
-        Map<String, ChainDomainMap> pdbChainDomainMap = new HashMap<String, ChainDomainMap>();
-
-        String line;
-        BufferedReader bufferer = new BufferedReader(new FileReader(filename));
-        while ((line = bufferer.readLine()) != null) {
-            if (line.substring(0,1).equals("#")) {
-                continue;
-            }
-            // analyze the line
-            String pdbid = line.substring(0, 4);
-            String chain = line.substring(4, 5);
-            List<Domain> domains = CATHDomainFileParser.parseLine(line);
-
-            // store the result
-            ChainDomainMap chainDomainMap;
-            if (pdbChainDomainMap.containsKey(pdbid)) {
-            	chainDomainMap = pdbChainDomainMap.get(pdbid);
-            } else {
-                chainDomainMap = new ChainDomainMap();
-                pdbChainDomainMap.put(pdbid, chainDomainMap);
-            }
-            chainDomainMap.put(chain, domains);
-        }
-        bufferer.close();
-
-        return pdbChainDomainMap;
+        return DomainTable.read(filename).toMap();
     }
 
+    // uses the offset index to read just the lines for this id, making the index if necessary
     public static ChainDomainMap parseUpToParticularID(String filename, String pdbid) throws IOException {
         ChainDomainMap chainDomainMap = new ChainDomainMap();
 
-        String line;
-        BufferedReader bufferer = new BufferedReader(new FileReader(filename));
-        while ((line = bufferer.readLine()) != null) {
-            if (line.substring(0,1).equals("#") || !line.substring(0, 4).equals(pdbid)) {
+        String[] lines = CATHDomainIndex.forFile(filename).readLines(pdbid);
+        for (int i = 0; i < lines.length; i++) {
+            String line = lines[i];
+            if (line.length() < 5 || line.substring(0,1).equals("#") || !line.substring(0, 4).equals(pdbid)) {
                 continue;
             }
             // analyze the line
@@ -62,32 +31,12 @@ public class CATHDomainFileParser {
             chainDomainMap.put(chain, domains);
             //System.err.println("Storing " + domains.size() + " domains for " + pdbid + chain);
         }
-        bufferer.close();
 
         return chainDomainMap;
     }
 
     public static List<Domain> parseLine(String line) {
-    	List<Domain> domains = new ArrayList<Domain>();
-
-        Matcher domainMatcher = domainPattern.matcher(line.substring(14));
-        int domainID = 1;
-        while (domainMatcher.find()) {
-            Domain domain = new Domain(domainID);
-            String domainString = domainMatcher.group(0);
-            Matcher segmentMatcher = segmentPattern.matcher(domainString);
-            int numberOfSegments = Integer.parseInt(domainString.substring(0, 1));
-            int segmentCount = 0;
-            while (segmentMatcher.find() && segmentCount < numberOfSegments) {
-                int start = Integer.parseInt(segmentMatcher.group(1));
-                int end = Integer.parseInt(segmentMatcher.group(2));
-                domain.addSegment(start, end); 
-                segmentCount++;
-            }
-            domains.add(domain);
-            domainID++;
-        }
-        return domains;
+        return DomainTable.parseLine(line);
     }
 
     public static void main(String[] args) {
@@ -0,0 +1,254 @@
+package translation;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A sidecar index for a CathDomall file, mapping each PDB id to the byte ranges of
+ * its lines, so that the domains for one structure can be read without scanning the
+ * whole file.
+ *
+ * The index is kept next to the domain file, as 'filename.idx', and records the size
+ * and modification time of the file it was made from; if either has changed, it is
+ * made again.
+ */
+public class CATHDomainIndex {
+
+    private static final int MAGIC = 0x43444958;     // "CDIX"
+
+    private static final int VERSION = 1;
+
+    private static final String SUFFIX = ".idx";
+
+    // the indices already opened, by domain file
+    private static Map<String, CATHDomainIndex> openIndices = new HashMap<String, CATHDomainIndex>();
+
+    private String filename;
+
+    private long sourceLength;
+
+    private long sourceLastModified;
+
+    // offset, length pairs for each id; usually just one pair, as the lines are in order
+    private Map<String, long[]> ranges;
+
+    private CATHDomainIndex(String filename, long sourceLength, long sourceLastModified) {
+        this.filename = filename;
+        this.sourceLength = sourceLength;
+        this.sourceLastModified = sourceLastModified;
+        this.ranges = new HashMap<String, long[]>();
+    }
+
+    /**
+     * Get the index for a domain file, reading it from disk, or making it if it is
+     * missing or out of date.
+     */
+    public static synchronized CATHDomainIndex forFile(String filename) throws IOException {
+        File source = new File(filename);
+        if (!source.exists()) {
+            throw new IOException("No such domain file " + filename);
+        }
+
+        CATHDomainIndex index = CATHDomainIndex.openIndices.get(filename);
+        if (index != null && index.isCurrent(source)) {
+            return index;
+        }
+
+        File indexFile = new File(filename + SUFFIX);
+        index = null;
+        if (indexFile.exists()) {
+            index = CATHDomainIndex.load(filename, indexFile);
+        }
+        if (index == null || !index.isCurrent(source)) {
+            index = CATHDomainIndex.build(filename, source);
+            try {
+                index.store(indexFile);
+            } catch (IOException ioe) {
+                // an unwritable directory only means that the index is made again next time
+                System.err.println("Cannot write domain index " + indexFile + " : " + ioe);
+            }
+        }
+        CATHDomainIndex.openIndices.put(filename, index);
+        return index;
+    }
+
+    public boolean contains(String pdbid) {
+        return this.ranges.containsKey(pdbid);
+    }
+
+    /**
+     * Read the lines for a PDB id from the domain file.
+     *
+     * @return the lines, in file order, or an empty array if the id is not in the file
+     */
+    public String[] readLines(String pdbid) throws IOException {
+        long[] idRanges = this.ranges.get(pdbid);
+        if (idRanges == null) {
+            return new String[0];
+        }
+
+        StringBuffer text = new StringBuffer();
+        RandomAccessFile file = new RandomAccessFile(this.filename, "r");
+        try {
+            for (int i = 0; i < idRanges.length; i += 2) {
+                byte[] bytes = new byte[(int) idRanges[i + 1]];
+                file.seek(idRanges[i]);
+                file.readFully(bytes);
+                for (int j = 0; j < bytes.length; j++) {
+                    text.append((char) (bytes[j] & 0xff));
+                }
+            }
+        } finally {
+            file.close();
+        }
+
+        String[] lines = text.toString().split("\r?\n");
+        return lines;
+    }
+
+    private boolean isCurrent(File source) {
+        return source.length() == this.sourceLength && source.lastModified() == this.sourceLastModified;
+    }
+
+    // one pass over the file, noting where each run of lines for an id starts and ends
+    private static CATHDomainIndex build(String filename, File source) throws IOException {
+        CATHDomainIndex index = new CATHDomainIndex(filename, source.length(), source.lastModified());
+
+        InputStream in = new BufferedInputStream(new FileInputStream(source), 64 * 1024);
+        try {
+            byte[] line = new byte[1024];
+            long offset = 0;
+            String runID = null;
+            long runStart = 0;
+            long runEnd = 0;
+            while (true) {
+                // read the next line, noting its length in bytes including the newline
+                long lineStart = offset;
+                int length = 0;
+                int b;
+                while ((b = in.read()) != -1) {
+                    offset++;
+                    if (b == '\n') {
+                        break;
+                    }
+                    if (length == line.length) {
+                        byte[] longer = new byte[line.length * 2];
+                        System.arraycopy(line, 0, longer, 0, length);
+                        line = longer;
+                    }
+                    line[length++] = (byte) b;
+                }
+                if (b == -1 && lineStart == offset) {
+                    break;
+                }
+
+                String id = null;
+                if (length >= 5 && line[0] != '#') {
+                    id = new String(new char[] { (char) line[0], (char) line[1], (char) line[2], (char) line[3] });
+                }
+
+                if (id == null || !id.equals(runID)) {
+                    if (runID != null) {
+                        index.addRange(runID, runStart, runEnd - runStart);
+                    }
+                    runID = id;
+                    runStart = lineStart;
+                }
+                runEnd = offset;
+            }
+            if (runID != null) {
+                index.addRange(runID, runStart, runEnd - runStart);
+            }
+        } finally {
+            in.close();
+        }
+        return index;
+    }
+
+    private void addRange(String pdbid, long offset, long length) {
+        long[] existing = this.ranges.get(pdbid);
+        if (existing == null) {
+            this.ranges.put(pdbid, new long[] { offset, length });
+        } else {
+            long[] extended = new long[existing.length + 2];
+            System.arraycopy(existing, 0, extended, 0, existing.length);
+            extended[existing.length] = offset;
+            extended[existing.length + 1] = length;
+            this.ranges.put(pdbid, extended);
+        }
+    }
+
+    // returns null if the index file is not one of ours
+    private static CATHDomainIndex load(String filename, File indexFile) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile), 64 * 1024));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            CATHDomainIndex index = new CATHDomainIndex(filename, in.readLong(), in.readLong());
+            int numberOfRanges = in.readInt();
+            char[] id = new char[4];
+            for (int i = 0; i < numberOfRanges; i++) {
+                for (int j = 0; j < id.length; j++) {
+                    id[j] = (char) in.readUnsignedByte();
+                }
+                long offset = in.readLong();
+                int length = in.readInt();
+                index.addRange(new String(id), offset, length);
+            }
+            return index;
+        } catch (IOException ioe) {
+            // a truncated index is simply made again
+            return null;
+        } finally {
+            in.close();
+        }
+    }
+
+    private void store(File indexFile) throws IOException {
+        int numberOfRanges = 0;
+        for (long[] idRanges : this.ranges.values()) {
+            numberOfRanges += idRanges.length / 2;
+        }
+
+        File temporary = new File(indexFile.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary), 64 * 1024));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(this.sourceLength);
+            out.writeLong(this.sourceLastModified);
+            out.writeInt(numberOfRanges);
+            for (Map.Entry<String, long[]> entry : this.ranges.entrySet()) {
+                String pdbid = entry.getKey();
+                long[] idRanges = entry.getValue();
+                for (int i = 0; i < idRanges.length; i += 2) {
+                    for (int j = 0; j < 4; j++) {
+                        out.writeByte(pdbid.charAt(j));
+                    }
+                    out.writeLong(idRanges[i]);
+                    out.writeInt((int) idRanges[i + 1]);
+                }
+            }
+        } finally {
+            out.close();
+        }
+
+        if (!temporary.renameTo(indexFile)) {
+            indexFile.delete();
+            if (!temporary.renameTo(indexFile)) {
+                throw new IOException("Cannot replace " + indexFile);
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package translation;
+
+import java.util.Arrays;
+
+import translation.model.BackboneCoordinates;
+import translation.model.Chain;
+import translation.model.HBondTable;
+
+/**
+ * Finds the bonds of a chain by filtering its candidates from a HBondCandidateCache,
+ * working out the candidates (with a grid search, out to the cache's cutoff) only if
+ * the cache has none for the chain. The filter is the exact test of the brute force
+ * detector, so the bonds are the same, in the same order.
+ */
+public class CachedHBondDetector extends GeometricHBondDetector {
+
+    private HBondCandidateCache cache;
+
+    public CachedHBondDetector(double maxHODistance, double minNHOAngle, double minHOCAngle, HBondCandidateCache cache) {
+        super(maxHODistance, minNHOAngle, minHOCAngle);
+        this.cache = cache;
+        if (maxHODistance > cache.getCutoff()) {
+            throw new IllegalArgumentException("Maximum distance " + maxHODistance + " is beyond the cached candidates at " + cache.getCutoff());
+        }
+    }
+
+    public void findHBonds(Chain chain) {
+        BackboneCoordinates backbone = chain.getBackboneCoordinates();
+        HBondCandidateCache.Candidates candidates = this.cache.get(chain.getLabel(), backbone);
+        if (candidates == null) {
+            candidates = this.findCandidates(chain, backbone);
+            this.cache.put(chain.getLabel(), candidates);
+        }
+
+        HBondTable table = chain.getHBondTable();
+        for (int i = 0; i < candidates.size(); i++) {
+            if (this.accept(candidates.getDistance(i), candidates.getNHOAngle(i), candidates.getHOCAngle(i))) {
+                table.add(candidates.getDonor(i), candidates.getAcceptor(i), candidates.getDistance(i), candidates.getNHOAngle(i), candidates.getHOCAngle(i));
+            }
+        }
+    }
+
+    private HBondCandidateCache.Candidates findCandidates(Chain chain, BackboneCoordinates backbone) {
+        boolean[] usableAsFirst = this.usableAsFirst(chain, backbone);
+        boolean[] usableAsSecond = this.usableAsSecond(chain, backbone);
+        int length = chain.length();
+        boolean[] usable = new boolean[length];
+        for (int i = 0; i < length; i++) {
+            usable[i] = usableAsFirst[i] || usableAsSecond[i];
+        }
+
+        int N = BackboneCoordinates.N;
+        int H = BackboneCoordinates.H;
+        int O = BackboneCoordinates.O;
+        int C = BackboneCoordinates.C;
+        double cutoff = this.cache.getCutoff();
+        AtomGrid oxygens = new AtomGrid(backbone.getX(O), backbone.getY(O), backbone.getZ(O), usable, cutoff);
+        double[] hx = backbone.getX(H);
+        double[] hy = backbone.getY(H);
+        double[] hz = backbone.getZ(H);
+        int[] near = new int[length];
+
+        // as for the grid detector, (first, second, direction) packed so that sorting gives the order of the bonds
+        long[] keys = new long[16];
+        int size = 0;
+        for (int donor = 0; donor < length; donor++) {
+            if (!usable[donor]) {
+                continue;
+            }
+            int numberNear = oxygens.findWithin(hx[donor], hy[donor], hz[donor], cutoff, near);
+            for (int k = 0; k < numberNear; k++) {
+                int acceptor = near[k];
+                int first = Math.min(donor, acceptor);
+                int second = Math.max(donor, acceptor);
+                if (second - first < 3 || !usableAsFirst[first] || !usableAsSecond[second]) {
+                    continue;
+                }
+                if (!(backbone.distance(H, donor, O, acceptor) < cutoff)) {
+                    continue;
+                }
+                if (size == keys.length) {
+                    long[] larger = new long[keys.length * 2];
+                    System.arraycopy(keys, 0, larger, 0, size);
+                    keys = larger;
+                }
+                int direction = (donor == first) ? 0 : 1;
+                keys[size++] = ((((long) first << 21) | second) << 1) | direction;
+            }
+        }
+        Arrays.sort(keys, 0, size);
+
+        int[] donors = new int[size];
+        int[] acceptors = new int[size];
+        double[] distances = new double[size];
+        double[] nhoAngles = new double[size];
+        double[] hocAngles = new double[size];
+        for (int i = 0; i < size; i++) {
+            int first = (int) (keys[i] >>> 22);
+            int second = (int) ((keys[i] >>> 1) & ((1 << 21) - 1));
+            int donor = ((keys[i] & 1) == 0) ? first : second;
+            int acceptor = (donor == first) ? second : first;
+            donors[i] = donor;
+            acceptors[i] = acceptor;
+            distances[i] = backbone.distance(H, donor, O, acceptor);
+            nhoAngles[i] = backbone.angle(N, donor, H, donor, O, acceptor);
+            hocAngles[i] = backbone.angle(H, donor, O, acceptor, C, acceptor);
+        }
+        return new HBondCandidateCache.Candidates(backbone, size, donors, acceptors, distances, nhoAngles, hocAngles);
+    }
+}
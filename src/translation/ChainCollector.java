@@ -0,0 +1,31 @@
+package translation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import translation.model.Chain;
+import translation.model.Protein;
+
+/**
+ * The simplest ChainListener : keeps every chain, to make a whole Protein at the end.
+ */
+public class ChainCollector implements ChainListener {
+
+    private List<Chain> chains;
+
+    public ChainCollector() {
+        this.chains = new ArrayList<Chain>();
+    }
+
+    public void chainRead(Chain chain) {
+        this.chains.add(chain);
+    }
+
+    public Protein toProtein(String pdbID) {
+        Protein protein = new Protein(pdbID);
+        for (Chain chain : this.chains) {
+            protein.addChain(chain);
+        }
+        return protein;
+    }
+}
@@ -0,0 +1,13 @@
+package translation;
+
+import translation.model.Chain;
+
+/**
+ * Receives each chain from a reader as soon as it has been completely read, so that
+ * it can be analysed (and then released) while the rest of the file is still being read.
+ */
+public interface ChainListener {
+
+    public void chainRead(Chain chain);
+
+}
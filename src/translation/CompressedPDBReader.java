@@ -0,0 +1,322 @@
+package translation;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.GZIPInputStream;
+
+import translation.model.Protein;
+
+/**
+ * Reads PDB files straight out of gzip files (.ent.gz, .pdb.gz) and tar bundles
+ * (.tar, .tar.gz, .tgz), without decompressing to disk first. The decompression
+ * runs on its own thread, while the calling thread parses.
+ *
+ * As with MappedPDBReader, only the backbone atoms are kept unless allAtoms is set.
+ */
+public class CompressedPDBReader {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int TAR_BLOCK_SIZE = 512;
+
+    /**
+     * Called for each structure in a bundle.
+     */
+    public interface EntryHandler {
+
+        /**
+         * @param entryName the name of the file in the bundle
+         * @return the listener for the chains of this entry, or null to skip it
+         */
+        public ChainListener entryStarted(String entryName);
+
+        public void entryFinished(String entryName, String pdbID);
+
+    }
+
+    public static boolean isGzip(String filename) {
+        return filename.endsWith(".gz") && !CompressedPDBReader.isBundle(filename);
+    }
+
+    public static boolean isBundle(String filename) {
+        return filename.endsWith(".tar") || filename.endsWith(".tar.gz") || filename.endsWith(".tgz");
+    }
+
+    public static Protein read(String filename) throws IOException {
+        return CompressedPDBReader.read(filename, false);
+    }
+
+    public static Protein read(String filename, boolean allAtoms) throws IOException {
+        ChainCollector collector = new ChainCollector();
+        String pdbID = CompressedPDBReader.read(filename, collector, allAtoms);
+        return collector.toProtein(pdbID);
+    }
+
+    public static String read(String filename, ChainListener listener) throws IOException {
+        return CompressedPDBReader.read(filename, listener, false);
+    }
+
+    public static String read(String filename, ChainListener listener, boolean allAtoms) throws IOException {
+        InputStream in = CompressedPDBReader.open(filename);
+        try {
+            return CompressedPDBReader.read(in, listener, allAtoms);
+        } finally {
+            in.close();
+        }
+    }
+
+    public static String read(InputStream in, ChainListener listener) throws IOException {
+        return CompressedPDBReader.read(in, listener, false);
+    }
+
+    /**
+     * Parse a PDB file from a stream, passing the bytes to the same parser as the
+     * memory-mapped reader.
+     *
+     * @param in the (uncompressed) PDB data
+     * @param listener the receiver of each complete chain
+     * @param allAtoms if true, keep the side-chain atoms as well as the backbone
+     * @return the PDB ID from the header, or "Unknown"
+     */
+    public static String read(InputStream in, ChainListener listener, boolean allAtoms) throws IOException {
+        MappedPDBReader reader = new MappedPDBReader(listener, allAtoms);
+        byte[] bytes = new byte[BUFFER_SIZE];
+        int length = 0;
+        int read;
+        while ((read = in.read(bytes, length, bytes.length - length)) != -1) {
+            length += read;
+            int consumed = reader.parse(ByteBuffer.wrap(bytes, 0, length), false);
+
+            // keep the unfinished line for the next read, growing if it fills the buffer
+            System.arraycopy(bytes, consumed, bytes, 0, length - consumed);
+            length -= consumed;
+            if (length == bytes.length) {
+                byte[] larger = new byte[bytes.length * 2];
+                System.arraycopy(bytes, 0, larger, 0, length);
+                bytes = larger;
+            }
+        }
+        reader.parse(ByteBuffer.wrap(bytes, 0, length), true);
+        reader.finish();
+        return reader.getPDBID();
+    }
+
+    /**
+     * Read every PDB file in a tar bundle, which may itself be gzipped, as may the
+     * files inside it.
+     *
+     * @param filename the bundle
+     * @param handler gives a listener for each entry
+     */
+    public static void readBundle(String filename, EntryHandler handler) throws IOException {
+        CompressedPDBReader.readBundle(filename, handler, false);
+    }
+
+    /**
+     * @param allAtoms if true, keep the side-chain atoms of every entry as well as the backbone
+     */
+    public static void readBundle(String filename, EntryHandler handler, boolean allAtoms) throws IOException {
+        InputStream tar = CompressedPDBReader.open(filename);
+        try {
+            byte[] header = new byte[TAR_BLOCK_SIZE];
+            String longName = null;
+            while (CompressedPDBReader.readFully(tar, header, TAR_BLOCK_SIZE) && !CompressedPDBReader.isZeroBlock(header)) {
+                String name = (longName == null) ? CompressedPDBReader.entryName(header) : longName;
+                longName = null;
+                long size = CompressedPDBReader.parseOctal(header, 124, 12);
+                byte type = header[156];
+                long padding = (TAR_BLOCK_SIZE - (size % TAR_BLOCK_SIZE)) % TAR_BLOCK_SIZE;
+
+                if (type == 'L') {
+                    // a GNU long name, which is the name of the next entry
+                    byte[] nameBytes = new byte[(int) size];
+                    CompressedPDBReader.readFully(tar, nameBytes, nameBytes.length);
+                    longName = CompressedPDBReader.cString(nameBytes, 0, nameBytes.length);
+                    CompressedPDBReader.skipFully(tar, padding);
+                    continue;
+                }
+
+                ChainListener listener = null;
+                if (type == '0' || type == 0) {
+                    listener = handler.entryStarted(name);
+                }
+
+                if (listener == null) {
+                    CompressedPDBReader.skipFully(tar, size + padding);
+                    continue;
+                }
+
+                BoundedInputStream entry = new BoundedInputStream(tar, size);
+                String pdbID;
+                if (name.endsWith(".gz")) {
+                    InputStream unzipped = new BackgroundInputStream(new GZIPInputStream(entry, BUFFER_SIZE), name);
+                    try {
+                        pdbID = CompressedPDBReader.read(unzipped, listener, allAtoms);
+                    } finally {
+                        unzipped.close();
+                    }
+                } else {
+                    pdbID = CompressedPDBReader.read(entry, listener, allAtoms);
+                }
+                CompressedPDBReader.skipFully(tar, entry.remaining() + padding);
+                handler.entryFinished(name, pdbID);
+            }
+        } finally {
+            tar.close();
+        }
+    }
+
+    // the file contents, decompressed on a background thread if necessary
+    public static InputStream open(String filename) throws IOException {
+        InputStream in = new FileInputStream(filename);
+        if (filename.endsWith(".gz") || filename.endsWith(".tgz")) {
+            in = new GZIPInputStream(in, BUFFER_SIZE);
+        }
+        return new BackgroundInputStream(in, filename);
+    }
+
+    private static boolean readFully(InputStream in, byte[] bytes, int length) throws IOException {
+        int total = 0;
+        while (total < length) {
+            int read = in.read(bytes, total, length - total);
+            if (read == -1) {
+                return false;
+            }
+            total += read;
+        }
+        return true;
+    }
+
+    private static void skipFully(InputStream in, long count) throws IOException {
+        byte[] discard = new byte[TAR_BLOCK_SIZE];
+        while (count > 0) {
+            int read = in.read(discard, 0, (int) Math.min(count, discard.length));
+            if (read == -1) {
+                throw new IOException("Unexpected end of tar file");
+            }
+            count -= read;
+        }
+    }
+
+    private static boolean isZeroBlock(byte[] block) {
+        for (int i = 0; i < block.length; i++) {
+            if (block[i] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String entryName(byte[] header) {
+        String name = CompressedPDBReader.cString(header, 0, 100);
+
+        // ustar splits long paths between the prefix and the name
+        if (header[257] == 'u' && header[258] == 's' && header[259] == 't' && header[260] == 'a' && header[261] == 'r') {
+            String prefix = CompressedPDBReader.cString(header, 345, 155);
+            if (prefix.length() > 0) {
+                name = prefix + "/" + name;
+            }
+        }
+        return name;
+    }
+
+    private static String cString(byte[] bytes, int offset, int maxLength) {
+        int end = offset;
+        while (end < offset + maxLength && bytes[end] != 0) {
+            end++;
+        }
+        char[] chars = new char[end - offset];
+        for (int i = offset; i < end; i++) {
+            chars[i - offset] = (char) (bytes[i] & 0xff);
+        }
+        return new String(chars);
+    }
+
+    private static long parseOctal(byte[] bytes, int offset, int length) throws IOException {
+        long value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            byte b = bytes[i];
+            if (b == 0 || b == ' ') {
+                if (value > 0) {
+                    break;
+                } else {
+                    continue;
+                }
+            }
+            if (b < '0' || b > '7') {
+                throw new IOException("Bad number in tar header");
+            }
+            value = (value * 8) + (b - '0');
+        }
+        return value;
+    }
+
+    /**
+     * A view of the next 'size' bytes of a stream, for reading a single tar entry.
+     */
+    private static class BoundedInputStream extends InputStream {
+
+        private InputStream in;
+
+        private long remaining;
+
+        public BoundedInputStream(InputStream in, long size) {
+            this.in = in;
+            this.remaining = size;
+        }
+
+        public long remaining() {
+            return this.remaining;
+        }
+
+        public int read() throws IOException {
+            if (this.remaining == 0) {
+                return -1;
+            }
+            int b = this.in.read();
+            if (b != -1) {
+                this.remaining--;
+            }
+            return b;
+        }
+
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (this.remaining == 0) {
+                return -1;
+            }
+            int read = this.in.read(bytes, offset, (int) Math.min(length, this.remaining));
+            if (read != -1) {
+                this.remaining -= read;
+            }
+            return read;
+        }
+
+        // the tar stream is closed by the bundle reader, not by the entry
+        public void close() {
+        }
+    }
+
+    public static void main(String[] args) {
+        try {
+            if (CompressedPDBReader.isBundle(args[0])) {
+                CompressedPDBReader.readBundle(args[0], new EntryHandler() {
+                    public ChainListener entryStarted(String entryName) {
+                        System.out.println(entryName);
+                        return new ChainCollector();
+                    }
+
+                    public void entryFinished(String entryName, String pdbID) {
+                        System.out.println(entryName + " " + pdbID);
+                    }
+                });
+            } else {
+                Protein protein = CompressedPDBReader.read(args[0]);
+                System.out.println(protein.toString());
+            }
+        } catch (IOException ioe) {
+            System.err.println(ioe);
+        }
+    }
+}
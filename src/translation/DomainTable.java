@@ -0,0 +1,429 @@
+package translation;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import translation.model.Domain;
+
+/**
+ * The domain boundaries from a CathDomall file, held as primitive arrays rather than
+ * as maps of lists of Domain objects. Each line of the file is an entry (a PDB id and
+ * chain), each entry has a range of domains, and each domain has a range of segments.
+ *
+ * Whole files are read in chunks, in parallel, with a hand-written tokenizer for the
+ * Domall format :
+ *
+ * <pre>
+ * 1chmA D02 F00  1  A    2 - A  156 -  1  A  157 - A  402 -
+ * </pre>
+ *
+ * that is, the number of domains in columns 7-8, then for each domain the number of
+ * segments followed by six tokens per segment (chain, start, insertion code, chain,
+ * end, insertion code). The fragments at the end of the line are ignored.
+ */
+public class DomainTable {
+
+    private static final int CHUNK_SIZE = 1024 * 1024;
+
+    private String[] pdbIDs;
+
+    private char[] chainIDs;
+
+    // the first domain of each entry, with an extra one at the end
+    private int[] entryDomains;
+
+    // the first segment of each domain, with an extra one at the end
+    private int[] domainSegments;
+
+    private int[] segmentStarts;
+
+    private int[] segmentEnds;
+
+    // the entries for each PDB id, in file order
+    private Map<String, int[]> entriesByID;
+
+    private DomainTable(Part part) {
+        this.pdbIDs = part.pdbIDs.toArray(new String[part.pdbIDs.size()]);
+        this.chainIDs = part.chainIDs.toString().toCharArray();
+        this.entryDomains = part.entryDomains.toArray(part.domainSegments.size());
+        this.domainSegments = part.domainSegments.toArray(part.segmentStarts.size());
+        this.segmentStarts = part.segmentStarts.toArray();
+        this.segmentEnds = part.segmentEnds.toArray();
+
+        this.entriesByID = new HashMap<String, int[]>();
+        for (int i = 0; i < this.pdbIDs.length; i++) {
+            int[] entries = this.entriesByID.get(this.pdbIDs[i]);
+            if (entries == null) {
+                entries = new int[] { i };
+            } else {
+                int[] extended = new int[entries.length + 1];
+                System.arraycopy(entries, 0, extended, 0, entries.length);
+                extended[entries.length] = i;
+                entries = extended;
+            }
+            this.entriesByID.put(this.pdbIDs[i], entries);
+        }
+    }
+
+    /**
+     * Read a whole CathDomall file, using one thread per processor.
+     */
+    public static DomainTable read(String filename) throws IOException {
+        return DomainTable.read(filename, Runtime.getRuntime().availableProcessors());
+    }
+
+    public static DomainTable read(String filename, int numberOfThreads) throws IOException {
+        final byte[] bytes = DomainTable.readFully(filename);
+
+        // split at the first line break after each chunk boundary
+        List<int[]> chunks = new ArrayList<int[]>();
+        int chunkStart = 0;
+        while (chunkStart < bytes.length) {
+            int chunkEnd = Math.min(chunkStart + CHUNK_SIZE, bytes.length);
+            while (chunkEnd < bytes.length && bytes[chunkEnd - 1] != '\n') {
+                chunkEnd++;
+            }
+            chunks.add(new int[] { chunkStart, chunkEnd });
+            chunkStart = chunkEnd;
+        }
+
+        if (numberOfThreads < 2 || chunks.size() < 2) {
+            Part whole = new Part();
+            whole.parseLines(bytes, 0, bytes.length);
+            return new DomainTable(whole);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(numberOfThreads, chunks.size()));
+        try {
+            List<Future<Part>> futures = new ArrayList<Future<Part>>();
+            for (final int[] chunk : chunks) {
+                futures.add(executor.submit(new Callable<Part>() {
+                    public Part call() {
+                        Part part = new Part();
+                        part.parseLines(bytes, chunk[0], chunk[1]);
+                        return part;
+                    }
+                }));
+            }
+
+            // join the parts back together in file order
+            Part whole = new Part();
+            for (Future<Part> future : futures) {
+                whole.append(future.get());
+            }
+            return new DomainTable(whole);
+        } catch (ExecutionException ee) {
+            IOException ioe = new IOException("Error reading " + filename + " : " + ee.getCause());
+            ioe.initCause(ee.getCause());
+            throw ioe;
+        } catch (InterruptedException ie) {
+            throw new IOException("Interrupted while reading " + filename);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Parse the domains from a single line of a CathDomall file.
+     */
+    public static List<Domain> parseLine(String line) {
+        byte[] bytes = new byte[line.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) line.charAt(i);
+        }
+        Part part = new Part();
+        part.parseLine(bytes, 0, bytes.length);
+        if (part.pdbIDs.isEmpty()) {
+            return new ArrayList<Domain>();
+        }
+        return new DomainTable(part).getDomains(0);
+    }
+
+    public int numberOfEntries() {
+        return this.pdbIDs.length;
+    }
+
+    public boolean containsID(String pdbid) {
+        return this.entriesByID.containsKey(pdbid);
+    }
+
+    public Iterable<String> ids() {
+        return this.entriesByID.keySet();
+    }
+
+    /**
+     * A ChainDomainMap for one PDB id, made from the table.
+     *
+     * @return the map, or null if the id is not in the file
+     */
+    public ChainDomainMap getChainDomainMap(String pdbid) {
+        int[] entries = this.entriesByID.get(pdbid);
+        if (entries == null) {
+            return null;
+        }
+        ChainDomainMap chainDomainMap = new ChainDomainMap();
+        for (int i = 0; i < entries.length; i++) {
+            chainDomainMap.put(String.valueOf(this.chainIDs[entries[i]]), this.getDomains(entries[i]));
+        }
+        return chainDomainMap;
+    }
+
+    // the same as the map from CATHDomainFileParser.parseWholeFile
+    public Map<String, ChainDomainMap> toMap() {
+        Map<String, ChainDomainMap> pdbChainDomainMap = new HashMap<String, ChainDomainMap>();
+        for (String pdbid : this.entriesByID.keySet()) {
+            pdbChainDomainMap.put(pdbid, this.getChainDomainMap(pdbid));
+        }
+        return pdbChainDomainMap;
+    }
+
+    private List<Domain> getDomains(int entry) {
+        List<Domain> domains = new ArrayList<Domain>();
+        for (int d = this.entryDomains[entry]; d < this.entryDomains[entry + 1]; d++) {
+            Domain domain = new Domain(d - this.entryDomains[entry] + 1);
+            for (int s = this.domainSegments[d]; s < this.domainSegments[d + 1]; s++) {
+                domain.addSegment(this.segmentStarts[s], this.segmentEnds[s]);
+            }
+            domains.add(domain);
+        }
+        return domains;
+    }
+
+    private static byte[] readFully(String filename) throws IOException {
+        InputStream in = new FileInputStream(filename);
+        try {
+            byte[] bytes = new byte[(int) new java.io.File(filename).length()];
+            int length = 0;
+            int read;
+            while (length < bytes.length && (read = in.read(bytes, length, bytes.length - length)) != -1) {
+                length += read;
+            }
+            if (length < bytes.length) {
+                byte[] shorter = new byte[length];
+                System.arraycopy(bytes, 0, shorter, 0, length);
+                bytes = shorter;
+            }
+            return bytes;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * The entries from one chunk of the file, in growable arrays.
+     */
+    private static class Part {
+
+        private List<String> pdbIDs = new ArrayList<String>();
+
+        private StringBuffer chainIDs = new StringBuffer();
+
+        private IntList entryDomains = new IntList();
+
+        private IntList domainSegments = new IntList();
+
+        private IntList segmentStarts = new IntList();
+
+        private IntList segmentEnds = new IntList();
+
+        // the position of the tokenizer in the current line
+        private int position;
+
+        private int lineEnd;
+
+        public void parseLines(byte[] bytes, int start, int end) {
+            int lineStart = start;
+            for (int i = start; i < end; i++) {
+                if (bytes[i] == '\n') {
+                    this.parseLine(bytes, lineStart, i);
+                    lineStart = i + 1;
+                }
+            }
+            if (lineStart < end) {
+                this.parseLine(bytes, lineStart, end);
+            }
+        }
+
+        public void parseLine(byte[] bytes, int start, int end) {
+            if (end > start && bytes[end - 1] == '\r') {
+                end--;
+            }
+            if (end - start < 13 || bytes[start] == '#') {
+                return;
+            }
+
+            // lines for the same id are usually together, so share the String
+            String pdbid;
+            int last = this.pdbIDs.size() - 1;
+            if (last >= 0 && DomainTable.matches(bytes, start, this.pdbIDs.get(last))) {
+                pdbid = this.pdbIDs.get(last);
+            } else {
+                pdbid = new String(new char[] { (char) bytes[start], (char) bytes[start + 1], (char) bytes[start + 2], (char) bytes[start + 3] });
+            }
+            this.pdbIDs.add(pdbid);
+            this.chainIDs.append((char) (bytes[start + 4] & 0xff));
+            this.entryDomains.add(this.domainSegments.size());
+
+            // the 'Dnn' field
+            int numberOfDomains = 0;
+            for (int i = start + 7; i < end && bytes[i] >= '0' && bytes[i] <= '9'; i++) {
+                numberOfDomains = (numberOfDomains * 10) + (bytes[i] - '0');
+            }
+
+            this.position = start + 13;
+            this.lineEnd = end;
+            for (int d = 0; d < numberOfDomains; d++) {
+                int numberOfSegments = this.nextInt(bytes);
+                if (numberOfSegments == Integer.MIN_VALUE) {
+                    break;
+                }
+
+                int firstSegment = this.segmentStarts.size();
+                for (int s = 0; s < numberOfSegments; s++) {
+                    this.nextToken(bytes);                      // chain
+                    int segmentStart = this.nextInt(bytes);
+                    this.nextToken(bytes);                      // insertion code
+                    this.nextToken(bytes);                      // chain
+                    int segmentEnd = this.nextInt(bytes);
+                    boolean complete = this.nextToken(bytes);   // insertion code
+                    if (!complete || segmentStart == Integer.MIN_VALUE || segmentEnd == Integer.MIN_VALUE) {
+                        break;
+                    }
+                    this.segmentStarts.add(segmentStart);
+                    this.segmentEnds.add(segmentEnd);
+                }
+
+                // a truncated line keeps the domains that were complete
+                if (this.segmentStarts.size() - firstSegment < numberOfSegments) {
+                    this.segmentStarts.truncate(firstSegment);
+                    this.segmentEnds.truncate(firstSegment);
+                    break;
+                }
+                this.domainSegments.add(firstSegment);
+            }
+        }
+
+        // move past the next token, returning false if there isn't one
+        private boolean nextToken(byte[] bytes) {
+            while (this.position < this.lineEnd && bytes[this.position] <= ' ') {
+                this.position++;
+            }
+            if (this.position == this.lineEnd) {
+                return false;
+            }
+            while (this.position < this.lineEnd && bytes[this.position] > ' ') {
+                this.position++;
+            }
+            return true;
+        }
+
+        // the next token as an integer, or MIN_VALUE if it is missing or not a number
+        private int nextInt(byte[] bytes) {
+            while (this.position < this.lineEnd && bytes[this.position] <= ' ') {
+                this.position++;
+            }
+            boolean negative = false;
+            if (this.position < this.lineEnd && bytes[this.position] == '-') {
+                negative = true;
+                this.position++;
+            }
+            int value = 0;
+            boolean seenDigit = false;
+            while (this.position < this.lineEnd && bytes[this.position] >= '0' && bytes[this.position] <= '9') {
+                value = (value * 10) + (bytes[this.position] - '0');
+                seenDigit = true;
+                this.position++;
+            }
+            if (!seenDigit || (this.position < this.lineEnd && bytes[this.position] > ' ')) {
+                return Integer.MIN_VALUE;
+            }
+            return (negative) ? -value : value;
+        }
+
+        // add the other part to the end of this one, shifting its indices
+        public void append(Part other) {
+            int domainShift = this.domainSegments.size();
+            int segmentShift = this.segmentStarts.size();
+            this.pdbIDs.addAll(other.pdbIDs);
+            this.chainIDs.append(other.chainIDs);
+            for (int i = 0; i < other.entryDomains.size(); i++) {
+                this.entryDomains.add(other.entryDomains.get(i) + domainShift);
+            }
+            for (int i = 0; i < other.domainSegments.size(); i++) {
+                this.domainSegments.add(other.domainSegments.get(i) + segmentShift);
+            }
+            this.segmentStarts.addAll(other.segmentStarts);
+            this.segmentEnds.addAll(other.segmentEnds);
+        }
+    }
+
+    private static boolean matches(byte[] bytes, int start, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (bytes[start + i] != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A growable array of ints.
+     */
+    private static class IntList {
+
+        private int[] values = new int[256];
+
+        private int size = 0;
+
+        public void add(int value) {
+            if (this.size == this.values.length) {
+                int[] larger = new int[this.values.length * 2];
+                System.arraycopy(this.values, 0, larger, 0, this.size);
+                this.values = larger;
+            }
+            this.values[this.size++] = value;
+        }
+
+        public void addAll(IntList other) {
+            for (int i = 0; i < other.size; i++) {
+                this.add(other.values[i]);
+            }
+        }
+
+        public int get(int i) {
+            return this.values[i];
+        }
+
+        public int size() {
+            return this.size;
+        }
+
+        public void truncate(int size) {
+            this.size = size;
+        }
+
+        public int[] toArray() {
+            int[] array = new int[this.size];
+            System.arraycopy(this.values, 0, array, 0, this.size);
+            return array;
+        }
+
+        // with one more value on the end
+        public int[] toArray(int lastValue) {
+            int[] array = new int[this.size + 1];
+            System.arraycopy(this.values, 0, array, 0, this.size);
+            array[this.size] = lastValue;
+            return array;
+        }
+    }
+}
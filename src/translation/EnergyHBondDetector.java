@@ -0,0 +1,122 @@
+package translation;
+
+import java.util.concurrent.ForkJoinPool;
+
+import translation.model.BackboneCoordinates;
+import translation.model.Chain;
+
+/**
+ * Accepts a bond by the electrostatic energy of Kabsch and Sander (as used by DSSP)
+ * rather than by its geometry : with partial charges on the C, O of the acceptor and
+ * the N, H of the donor,
+ *
+ *   E = 0.084 * 332 * (1/r(ON) + 1/r(CH) - 1/r(OH) - 1/r(CN)) kcal/mol
+ *
+ * and a bond is made if E is less than the maximum (by default, -0.5).
+ *
+ * The search is the same HBondGridSearch as the grid detector's, but as in DSSP, only
+ * the pairs of residues with their CA atoms closer than MAX_CA_DISTANCE are tested.
+ */
+public class EnergyHBondDetector extends AbstractHBondDetector {
+
+    public static final double DEFAULT_MAX_ENERGY = -0.5;
+
+    // the CA..CA distance within which pairs are tested
+    public static final double MAX_CA_DISTANCE = 9.0;
+
+    // the charge product of the model, in kcal/mol times Angstroms
+    private static final double COUPLING = 0.084 * 332;
+
+    // as in DSSP, atoms closer than this are taken to be as strongly bonded as possible
+    private static final double MIN_DISTANCE = 0.5;
+
+    private static final double MIN_ENERGY = -9.9;
+
+    private double maxEnergy;
+
+    private ForkJoinPool pool;
+
+    public EnergyHBondDetector() {
+        this(DEFAULT_MAX_ENERGY);
+    }
+
+    public EnergyHBondDetector(double maxEnergy) {
+        this.maxEnergy = maxEnergy;
+    }
+
+    /**
+     * @param pool the pool to search blocks of donors on, or null to search them all on the calling thread
+     */
+    public void setForkJoinPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    public void findHBonds(Chain chain) {
+        new HBondGridSearch(this, this.pool).findHBonds(chain);
+    }
+
+    protected int donorScreenAtom() {
+        return BackboneCoordinates.CA;
+    }
+
+    protected int acceptorScreenAtom() {
+        return BackboneCoordinates.CA;
+    }
+
+    protected double screenDistance() {
+        return MAX_CA_DISTANCE;
+    }
+
+    public boolean accept(BackboneCoordinates backbone, int donor, int acceptor) {
+        return this.energy(backbone, donor, acceptor) < this.maxEnergy;
+    }
+
+    /**
+     * The energy of the bond from the N-H of the donor to the C=O of the acceptor.
+     */
+    public double energy(BackboneCoordinates backbone, int donor, int acceptor) {
+        double[] x = backbone.getX(BackboneCoordinates.N);
+        double[] y = backbone.getY(BackboneCoordinates.N);
+        double[] z = backbone.getZ(BackboneCoordinates.N);
+        double nx = x[donor];
+        double ny = y[donor];
+        double nz = z[donor];
+
+        x = backbone.getX(BackboneCoordinates.H);
+        y = backbone.getY(BackboneCoordinates.H);
+        z = backbone.getZ(BackboneCoordinates.H);
+        double hx = x[donor];
+        double hy = y[donor];
+        double hz = z[donor];
+
+        x = backbone.getX(BackboneCoordinates.O);
+        y = backbone.getY(BackboneCoordinates.O);
+        z = backbone.getZ(BackboneCoordinates.O);
+        double ox = x[acceptor];
+        double oy = y[acceptor];
+        double oz = z[acceptor];
+
+        x = backbone.getX(BackboneCoordinates.C);
+        y = backbone.getY(BackboneCoordinates.C);
+        z = backbone.getZ(BackboneCoordinates.C);
+        double cx = x[acceptor];
+        double cy = y[acceptor];
+        double cz = z[acceptor];
+
+        double rON = EnergyHBondDetector.distance(ox, oy, oz, nx, ny, nz);
+        double rCH = EnergyHBondDetector.distance(cx, cy, cz, hx, hy, hz);
+        double rOH = EnergyHBondDetector.distance(ox, oy, oz, hx, hy, hz);
+        double rCN = EnergyHBondDetector.distance(cx, cy, cz, nx, ny, nz);
+        if (rON < MIN_DISTANCE || rCH < MIN_DISTANCE || rOH < MIN_DISTANCE || rCN < MIN_DISTANCE) {
+            return MIN_ENERGY;
+        }
+        return COUPLING * ((1 / rON) + (1 / rCH) - (1 / rOH) - (1 / rCN));
+    }
+
+    private static double distance(double ax, double ay, double az, double bx, double by, double bz) {
+        double dx = ax - bx;
+        double dy = ay - by;
+        double dz = az - bz;
+        return Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+}
@@ -6,6 +6,10 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.logging.ConsoleHandler;
 import java.util.logging.Formatter;
 import java.util.logging.Level;
@@ -18,15 +22,20 @@ import javax.vecmath.Vector3d;
 import translation.model.BackboneSegment;
 import translation.model.Chain;
 import translation.model.Protein;
-import translation.model.Residue;
 import translation.model.Sheet;
+import translation.model.SheetBuilder;
 import translation.model.Strand;
+import translation.model.StrandPairs;
 import translation.model.Terminus;
 
-public class FoldAnalyser {
+public class FoldAnalyser implements ChainListener {
 
+    // holds the properties; each chain is analysed by a copy of it
     private HBondAnalyser hBondAnalyser;
 
+    // if set, the chains of a protein are analysed at the same time on this
+    private ExecutorService executor;
+
     public FoldAnalyser() {
         this.hBondAnalyser = new HBondAnalyser();
 
@@ -36,114 +45,139 @@ public class FoldAnalyser {
         this.hBondAnalyser.setProperty("MIN_HOC_ANGLE", "90");
     }
 
+    /**
+     * Analyse the chains on an executor, rather than one after another. Each chain has its
+     * own analysis state, so the results are the same as for a sequential run.
+     *
+     * @param executor the executor to use, or null to analyse the chains in order on the calling thread
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Also look for hydrogen bonds between the chains of each protein analysed; these are
+     * stored in the protein, and do not change the analysis of each chain.
+     */
+    public void setFindInterChainHBonds(boolean findInterChainHBonds) {
+        this.hBondAnalyser.setProperty("INTERCHAIN_HBONDS", findInterChainHBonds ? "TRUE" : "FALSE");
+    }
+
     public Protein analyse(Protein protein) throws PropertyException {
+        List<Chain> chainList = new ArrayList<Chain>();
         Iterator<Chain> chains = protein.chainIterator();
-
         while (chains.hasNext()) {
-            Chain chain = (Chain) chains.next();
+            chainList.add(chains.next());
+        }
+
+        if (this.executor == null || chainList.size() < 2) {
+            for (Chain chain : chainList) {
+                this.analyse(chain);
+            }
+            this.hBondAnalyser.findInterChainHBonds(protein);
+            return protein;
+        }
 
+        // the analysers are handed out here, in chain order, as they would be for a sequential run
+        List<Future<Chain>> results = new ArrayList<Future<Chain>>();
+        for (final Chain chain : chainList) {
             if (chain.isDNA()) {
                 continue;
             }
+            final HBondAnalyser chainHBondAnalyser = this.nextHBondAnalyser();
+            results.add(this.executor.submit(new Callable<Chain>() {
+                public Chain call() throws PropertyException {
+                    FoldAnalyser.this.analyse(chain, chainHBondAnalyser);
+                    return chain;
+                }
+            }));
+        }
 
-            this.hBondAnalyser.analyse(chain);
-            this.hBondAnalyser.resetEndpoints();
-            this.findSheets(chain);
-            this.assignOrientationsDependingOnArchitecture(chain);
-            this.determineChiralities(chain);
+        // wait for all the chains, passing on the first failure (in chain order) as if it happened here
+        for (Future<Chain> result : results) {
+            try {
+                result.get();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while analysing " + protein.getID(), ie);
+            } catch (ExecutionException ee) {
+                Throwable cause = ee.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                } else {
+                    throw new RuntimeException(cause);
+                }
+            }
         }
+        this.hBondAnalyser.findInterChainHBonds(protein);
 
         return protein;
     }
 
-    public void findSheets(Chain chain) {
-        // for each strand, examine all strands in front (so we don't do the same comparison twice)
-        // each examination is a simple centroid-centroid distance
-        ListIterator<BackboneSegment> firstSegments = chain.backboneSegmentListIterator();
-
+    public void analyse(Chain chain) throws PropertyException {
+        if (chain.isDNA()) {
+            return;
+        }
+        this.analyse(chain, this.nextHBondAnalyser());
+    }
 
-        while (firstSegments.hasNext()) {
-            // get the first segment, reject if not a strand
-            BackboneSegment firstSegment = firstSegments.next();
-            if (!(firstSegment instanceof Strand)) {
-                continue;
-            }
+    private void analyse(Chain chain, HBondAnalyser chainHBondAnalyser) throws PropertyException {
+        chainHBondAnalyser.analyse(chain);
+        this.findSheets(chain);
+        this.assignOrientationsDependingOnArchitecture(chain);
+        this.determineChiralities(chain);
+    }
 
-            // get the segments after the current one
-            ListIterator<BackboneSegment> secondSegments = chain.backboneSegmentListIterator(firstSegment);
-            while (secondSegments.hasNext()) {
-                BackboneSegment secondSegment = secondSegments.next();
-                if ((secondSegment != firstSegment) && (secondSegment instanceof Strand)) {
-                    // make a crude distance check
-                    if (this.closeApproach(firstSegment, secondSegment)) {
-                        // if this passes, make a finer bonding check
-                        if (this.bonded(firstSegment, secondSegment)) {
-                            this.addStrandPair(firstSegment, secondSegment, chain);
-                        }
-                    }
-                }
-            }
-        }
+    // a copy of the analyser for each chain; the endpoints of a new analyser start at
+    // zero, not -1, until the first chain is done, so only the first copy gets those
+    private synchronized HBondAnalyser nextHBondAnalyser() {
+        HBondAnalyser chainHBondAnalyser = this.hBondAnalyser.copy();
+        this.hBondAnalyser.resetEndpoints();
+        return chainHBondAnalyser;
     }
 
-    public boolean closeApproach(BackboneSegment a, BackboneSegment b) {
-        Vector3d distanceVector = new Vector3d();
-        distanceVector.sub(a.getAxis().getCentroid(), b.getAxis().getCentroid());
-        double length = distanceVector.length();
-        Logger.getLogger("translation.FoldAnalyser").info("Distance between " + a + " and " + b + " = " + Math.rint(length));
-        return length < 20.0;
+    // analyse each chain as it comes off the reader
+    public void chainRead(Chain chain) {
+        this.analyse(chain);
     }
 
-    public boolean bonded(BackboneSegment strand, BackboneSegment otherStrand) {
-        //basically, run through the residues, checking the list of hbonds to find residues that might be in the other strand
-        int numberOfHBonds = 0;
-        Iterator<Residue> strandResidues = strand.residueIterator();
-        while (strandResidues.hasNext()) {
-            Residue nextResidue = (Residue) strandResidues.next();
-            if (otherStrand.bondedTo(nextResidue)) {
-                numberOfHBonds++;
+    public void findSheets(Chain chain) {
+        // the strands joined by hbonds, from one pass over the bonds, in the order a loop
+        // over each strand and the strands after it would find them
+        StrandPairs pairs = new StrandPairs(chain);
+
+        // comparing every pair used to work out the axis of every strand, which later steps expect
+        if (pairs.numberOfStrands() > 1) {
+            for (int strand = 0; strand < pairs.numberOfStrands(); strand++) {
+                pairs.getStrand(strand).getAxis();
             }
-            Logger.getLogger("translation.FoldAnalyser").info("Checking bonding of " + otherStrand + " and " + nextResidue + " number of bonds = " + numberOfHBonds);
         }
 
-        //all we want to know is, are there enough hbonds for these strands to qualify as bonded
-        //WARNING! this is number of RESIDUES not number of HBONDS
-        if (numberOfHBonds > 0) { //?is one residue enough?
-            return true;
-        } else {
-            Logger.getLogger("translation.FoldAnalyser").info(strand + " not bonded to " + otherStrand);
-            return false;
-        }
-    }
+        SheetBuilder sheets = new SheetBuilder(chain);
+        for (int pair = 0; pair < pairs.size(); pair++) {
+            BackboneSegment firstSegment = pairs.getFirst(pair);
+            BackboneSegment secondSegment = pairs.getSecond(pair);
 
-    public void addStrandPair(BackboneSegment first, BackboneSegment second, Chain chain) {
-        Sheet firstSheet = chain.getSheetContaining(first);
-        Sheet secondSheet = chain.getSheetContaining(second);
-
-        if (firstSheet == null && secondSheet == null) {
-            chain.createSheet(first, second);
-            Logger.getLogger("translation.FoldAnalyser").info("Adding " + first + " and " + second + " to new sheet");
-        } else {
-            if (firstSheet == null) {
-                Logger.getLogger("translation.FoldAnalyser").info("Adding " + first + " and " + second + " to " + secondSheet);
-                secondSheet.addPair(first, second);
-            } else if (secondSheet == null) {
-                Logger.getLogger("translation.FoldAnalyser").info("Adding " + first + " and " + second + " to " + firstSheet);
-                firstSheet.addPair(first, second);
-            } else {
-                // one possibility is that both sheets are the same, and this edge closes a barrel
-                if (firstSheet == secondSheet) {
-                    firstSheet.addPair(first, second);
-                } else {
-                    // otherwise, we have to join the sheets
-                    firstSheet.addPair(first, second);
-                    firstSheet.extend(secondSheet);
-                    chain.removeSheet(secondSheet);
-                }
+            // make a crude distance check, as well
+            if (this.closeApproach(firstSegment, secondSegment)) {
+                sheets.addLadder(pairs.getLadder(pair));
             }
         }
+        sheets.build();
     }
 
+    public boolean closeApproach(BackboneSegment a, BackboneSegment b) {
+        Vector3d distanceVector = new Vector3d();
+        distanceVector.sub(a.getAxis().getCentroid(), b.getAxis().getCentroid());
+        double length = distanceVector.length();
+        Logger logger = Logger.getLogger("translation.FoldAnalyser");
+        if (logger.isLoggable(Level.INFO)) {
+            logger.info("Distance between " + a + " and " + b + " = " + Math.rint(length));
+        }
+        return length < 20.0;
+    }
 
     //basically, using the least-square plane to find the best chain axis is a rubbish way to do things!
     //unfortunately, the only alternative is to have some rather ad-hoc rules based on architecture
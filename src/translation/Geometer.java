@@ -168,6 +168,20 @@ public class Geometer {
         return Math.toDegrees(ab.angle(cb));
     }
 
+    // the same as angle(Point3d, Point3d, Point3d), for coordinates held in arrays
+    public static double angle(double ax, double ay, double az, double bx, double by, double bz, double cx, double cy, double cz) {
+        return Math.toDegrees(Geometer.vectorAngle(ax - bx, ay - by, az - bz, cx - bx, cy - by, cz - bz));
+    }
+
+    // the angle between two vectors in radians, computed as Vector3d.angle does
+    private static double vectorAngle(double ux, double uy, double uz, double vx, double vy, double vz) {
+        double crossX = uy * vz - uz * vy;
+        double crossY = uz * vx - ux * vz;
+        double crossZ = ux * vy - uy * vx;
+        double crossLength = Math.sqrt(crossX * crossX + crossY * crossY + crossZ * crossZ);
+        return Math.abs(Math.atan2(crossLength, ux * vx + uy * vy + uz * vz));
+    }
+
     //ugh! in python you can do this in one line :
     //'return centroid + (axis * (axis * (point - centroid)))'..
     //oh for overloaded operators!
@@ -214,4 +228,42 @@ public class Geometer {
         return angle;
     }
 
+    // the same as torsion(Point3d, Point3d, Point3d, Point3d), for coordinates held in arrays
+    public static double torsion(double ax, double ay, double az, double bx, double by, double bz,
+                                 double cx, double cy, double cz, double dx, double dy, double dz) {
+        double abX = bx - ax;
+        double abY = by - ay;
+        double abZ = bz - az;
+
+        double bcX = cx - bx;
+        double bcY = cy - by;
+        double bcZ = cz - bz;
+
+        double lX = abY * bcZ - abZ * bcY;
+        double lY = abZ * bcX - abX * bcZ;
+        double lZ = abX * bcY - abY * bcX;
+
+        double cdX = dx - cx;
+        double cdY = dy - cy;
+        double cdZ = dz - cz;
+
+        double cbX = bx - cx;
+        double cbY = by - cy;
+        double cbZ = bz - cz;
+
+        double rX = cdY * cbZ - cdZ * cbY;
+        double rY = cdZ * cbX - cdX * cbZ;
+        double rZ = cdX * cbY - cdY * cbX;
+
+        double angle = Math.toDegrees(Geometer.vectorAngle(lX, lY, lZ, rX, rY, rZ));
+
+        double lrX = lY * rZ - lZ * rY;
+        double lrY = lZ * rX - lX * rZ;
+        double lrZ = lX * rY - lY * rX;
+        if (lrX * bcX + lrY * bcY + lrZ * bcZ < 0.0)
+            angle = -angle;
+
+        return angle;
+    }
+
 }
@@ -0,0 +1,142 @@
+package translation;
+
+import translation.model.BackboneCoordinates;
+
+/**
+ * The geometric criteria for a bond : it is accepted if the H..O distance is less than
+ * the maximum, and both the N-H..O and H..O=C angles are more than their minimums.
+ *
+ * As well as the test of a pair of residues from their atoms, these criteria can be
+ * applied to the distance and angles of a bond worked out beforehand.
+ */
+public abstract class GeometricHBondDetector extends AbstractHBondDetector {
+
+    protected double maxHODistance;
+
+    protected double minNHOAngle;
+
+    protected double minHOCAngle;
+
+    // the thresholds as a squared distance and cosines, for testing pairs without trigonometry
+    private double maxHODistanceSquared;
+
+    private double cosNHOAngle;
+
+    private double cosHOCAngle;
+
+    // the difference, relative to the values compared, below which a test is too close to call and is done exactly
+    private static final double TOLERANCE = 1e-9;
+
+    public GeometricHBondDetector(double maxHODistance, double minNHOAngle, double minHOCAngle) {
+        this.maxHODistance = maxHODistance;
+        this.minNHOAngle = minNHOAngle;
+        this.minHOCAngle = minHOCAngle;
+
+        this.maxHODistanceSquared = maxHODistance * maxHODistance;
+        this.cosNHOAngle = GeometricHBondDetector.cosineOf(minNHOAngle);
+        this.cosHOCAngle = GeometricHBondDetector.cosineOf(minHOCAngle);
+    }
+
+    // angles outside 0 to 180 have no cosine that can stand in for them, so those are always tested exactly
+    private static double cosineOf(double angle) {
+        if (angle >= 0 && angle <= 180) {
+            return Math.cos(Math.toRadians(angle));
+        } else {
+            return Double.NaN;
+        }
+    }
+
+    public boolean accept(double distance, double nhoAngle, double hocAngle) {
+        return distance < this.maxHODistance && nhoAngle > this.minNHOAngle && hocAngle > this.minHOCAngle;
+    }
+
+    /**
+     * Test the bond from donor to acceptor without working out the angles : the squared
+     * H..O distance is compared to the square of the maximum, and the dot products of the
+     * bond vectors to the cosines of the minimum angles (the angle is more than the
+     * minimum when its cosine is less). Only comparisons too close to call, where rounding
+     * could make the answer differ from that of accept, fall back to the exact test.
+     */
+    public boolean accept(BackboneCoordinates backbone, int donor, int acceptor) {
+        if (!(this.maxHODistance > 0)) {
+            return false;
+        }
+        double[] x = backbone.getX(BackboneCoordinates.H);
+        double[] y = backbone.getY(BackboneCoordinates.H);
+        double[] z = backbone.getZ(BackboneCoordinates.H);
+        double hx = x[donor];
+        double hy = y[donor];
+        double hz = z[donor];
+
+        x = backbone.getX(BackboneCoordinates.O);
+        y = backbone.getY(BackboneCoordinates.O);
+        z = backbone.getZ(BackboneCoordinates.O);
+        double ox = x[acceptor];
+        double oy = y[acceptor];
+        double oz = z[acceptor];
+
+        // H..O, which is also one arm of both angles
+        double hoX = ox - hx;
+        double hoY = oy - hy;
+        double hoZ = oz - hz;
+        double hoSquared = hoX * hoX + hoY * hoY + hoZ * hoZ;
+        if (!(hoSquared < this.maxHODistanceSquared * (1 + TOLERANCE))) {
+            return false;
+        }
+        if (!(hoSquared < this.maxHODistanceSquared * (1 - TOLERANCE)) && !(Math.sqrt(hoSquared) < this.maxHODistance)) {
+            return false;
+        }
+
+        // the N-H..O angle, at H, between H->N and H->O
+        x = backbone.getX(BackboneCoordinates.N);
+        y = backbone.getY(BackboneCoordinates.N);
+        z = backbone.getZ(BackboneCoordinates.N);
+        double hnX = x[donor] - hx;
+        double hnY = y[donor] - hy;
+        double hnZ = z[donor] - hz;
+        int nho = GeometricHBondDetector.compareAngle(hnX, hnY, hnZ, hoX, hoY, hoZ, this.cosNHOAngle);
+        if (nho == 0) {
+            nho = (Geometer.angle(x[donor], y[donor], z[donor], hx, hy, hz, ox, oy, oz) > this.minNHOAngle) ? 1 : -1;
+        }
+        if (nho < 0) {
+            return false;
+        }
+
+        // the H..O=C angle, at O, between O->H and O->C
+        x = backbone.getX(BackboneCoordinates.C);
+        y = backbone.getY(BackboneCoordinates.C);
+        z = backbone.getZ(BackboneCoordinates.C);
+        double ocX = x[acceptor] - ox;
+        double ocY = y[acceptor] - oy;
+        double ocZ = z[acceptor] - oz;
+        int hoc = GeometricHBondDetector.compareAngle(-hoX, -hoY, -hoZ, ocX, ocY, ocZ, this.cosHOCAngle);
+        if (hoc == 0) {
+            hoc = (Geometer.angle(hx, hy, hz, ox, oy, oz, x[acceptor], y[acceptor], z[acceptor]) > this.minHOCAngle) ? 1 : -1;
+        }
+        return hoc > 0;
+    }
+
+    /**
+     * Compare the angle between u and v to the angle whose cosine is given, without any
+     * trigonometry : cos(angle) = u.v / (|u| |v|), so the angle is more when u.v is less
+     * than cosine * |u| |v|.
+     *
+     * @return 1 if the angle is more, -1 if it is not, or 0 if it is too close to call
+     */
+    private static int compareAngle(double ux, double uy, double uz, double vx, double vy, double vz, double cosine) {
+        double lengths = Math.sqrt((ux * ux + uy * uy + uz * uz) * (vx * vx + vy * vy + vz * vz));
+        if (!(lengths > 0) || Double.isNaN(cosine)) {
+            return 0;
+        }
+        double difference = (ux * vx + uy * vy + uz * vz) - (cosine * lengths);
+        if (Math.abs(difference) <= TOLERANCE * lengths) {
+            return 0;
+        }
+        return (difference < 0) ? 1 : -1;
+    }
+
+    // for the geometric criteria, the H and O are screened by the maximum distance
+    protected double screenDistance() {
+        return this.maxHODistance;
+    }
+}
@@ -0,0 +1,34 @@
+package translation;
+
+import java.util.concurrent.ForkJoinPool;
+
+import translation.model.Chain;
+
+/**
+ * Finds the bonds that meet the geometric criteria with a HBondGridSearch : the acceptor
+ * O atoms are put into an AtomGrid, and each donor H is only tested against the oxygens
+ * in the cells around it. The bonds found are the same as for the brute force detector,
+ * and are added in the same order.
+ *
+ * For long chains, the donors can be split into blocks that are searched on a fork/join
+ * pool, with the same result.
+ */
+public class GridHBondDetector extends GeometricHBondDetector {
+
+    private ForkJoinPool pool;
+
+    public GridHBondDetector(double maxHODistance, double minNHOAngle, double minHOCAngle) {
+        super(maxHODistance, minNHOAngle, minHOCAngle);
+    }
+
+    /**
+     * @param pool the pool to search blocks of donors on, or null to search them all on the calling thread
+     */
+    public void setForkJoinPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    public void findHBonds(Chain chain) {
+        new HBondGridSearch(this, this.pool).findHBonds(chain);
+    }
+}
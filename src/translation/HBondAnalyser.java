@@ -9,18 +9,25 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.ForkJoinPool;
 
-import javax.vecmath.Point3d;
-
+import translation.model.BackboneCoordinates;
 import translation.model.Chain;
 import translation.model.HBond;
+import translation.model.HBondTable;
 import translation.model.Protein;
 import translation.model.Residue;
 
-public class HBondAnalyser {
+public class HBondAnalyser implements ChainListener {
 
     private Properties properties;
 
+    // made when first needed, if HBOND_THREADS is more than one, and shared with any copies
+    private ForkJoinPool pool;
+
+    // made when first needed, if CACHE_HBOND_CANDIDATES is TRUE, and also shared with any copies
+    private HBondCandidateCache candidateCache;
+
     private int threeTenHelixStart;
     private int threeTenHelixEnd;
 
@@ -41,11 +48,38 @@ public class HBondAnalyser {
         this.properties = properties;
     }
 
+    /**
+     * A new analyser with a copy of these properties and the current SSE endpoints, but
+     * with its own state from then on, so that it can analyse a chain at the same time
+     * as this one.
+     */
+    public HBondAnalyser copy() {
+        HBondAnalyser copy = new HBondAnalyser((Properties) this.properties.clone());
+        copy.pool = this.getForkJoinPool();
+        copy.candidateCache = this.getCandidateCache();
+        copy.threeTenHelixStart = this.threeTenHelixStart;
+        copy.threeTenHelixEnd   = this.threeTenHelixEnd;
+        copy.alphaHelixStart    = this.alphaHelixStart;
+        copy.alphaHelixEnd      = this.alphaHelixEnd;
+        copy.piHelixStart       = this.piHelixStart;
+        copy.piHelixEnd         = this.piHelixEnd;
+        copy.strandStart        = this.strandStart;
+        copy.strandEnd          = this.strandEnd;
+        return copy;
+    }
+
     public void setDefaultProperties() {
         this.properties.setProperty("CALCULATE_BACKBONE_AMIDE_HYDROGENS", "TRUE");
         this.properties.setProperty("MAX_HO_DISTANCE", "3.0");
         this.properties.setProperty("MIN_NHO_ANGLE", "120");
         this.properties.setProperty("MIN_HOC_ANGLE", "90");
+        this.properties.setProperty("HBOND_DETECTOR", "GRID");
+        this.properties.setProperty("HBOND_THREADS", "1");
+        this.properties.setProperty("INTERCHAIN_HBONDS", "FALSE");
+        this.properties.setProperty("HBOND_CRITERION", "GEOMETRY");
+        this.properties.setProperty("MAX_HBOND_ENERGY", "-0.5");
+        this.properties.setProperty("CACHE_HBOND_CANDIDATES", "FALSE");
+        this.properties.setProperty("CANDIDATE_HO_DISTANCE", "4.0");
     }
 
     public void resetEndpoints() {
@@ -73,32 +107,33 @@ public class HBondAnalyser {
 
     public void analyse(Protein protein) throws PropertyException {
         Iterator<Chain> chains = protein.chainIterator();
-        boolean calculateBackboneHydrogens = this.properties.getProperty("CALCULATE_BACKBONE_AMIDE_HYDROGENS").equals("TRUE");
+        boolean calculateBackboneHydrogens = this.properties.getProperty("CALCULATE_BACKBONE_AMIDE_HYDROGENS", "FALSE").equals("TRUE");
 
         while (chains.hasNext()) {
             Chain chain = (Chain) chains.next();
 
             if (calculateBackboneHydrogens) {
-                chain.addBackboneAmideHydrogens();
+                chain.addBackboneAmideHydrogens(this.getForkJoinPool());
             }
             this.analyse(chain);
         }
+        this.findInterChainHBonds(protein);
     }
 
-    public void analyse(Chain chain) throws PropertyException {
-        double MAX_HO_DISTANCE = 0.0;
-        double MIN_NHO_ANGLE   = 0.0;
-        double MIN_HOC_ANGLE   = 0.0;
-
-        try {
-            MAX_HO_DISTANCE = Double.parseDouble(this.properties.getProperty("MAX_HO_DISTANCE"));
-            MIN_NHO_ANGLE   = Double.parseDouble(this.properties.getProperty("MIN_NHO_ANGLE"));
-            MIN_HOC_ANGLE   = Double.parseDouble(this.properties.getProperty("MIN_HOC_ANGLE"));
-            //System.out.println("HO " + MIN_HO_DISTANCE + " NHO " + MIN_NHO_ANGLE + " HOC " + MIN_HOC_ANGLE);
-        } catch (NumberFormatException nfe) {
-            throw new PropertyException("Error in properties!");
+    // analyse each chain as it comes off the reader, adding hydrogens if necessary
+    public void chainRead(Chain chain) {
+        if (this.properties.getProperty("CALCULATE_BACKBONE_AMIDE_HYDROGENS", "FALSE").equals("TRUE")) {
+            chain.addBackboneAmideHydrogens(this.getForkJoinPool());
         }
+        this.analyse(chain);
+    }
 
+    public void analyse(Chain chain) throws PropertyException {
+        this.createHBondDetector().findHBonds(chain);
+
+        // now, use the hbond assignments to determine each residue's environment
+        BackboneCoordinates backbone = chain.getBackboneCoordinates();
+        HBondTable table = chain.getHBondTable();
         int index = -1;
         Iterator<Residue> residues = chain.residueIterator();
 
@@ -106,94 +141,16 @@ public class HBondAnalyser {
             Residue first = (Residue) residues.next();
             index++;
 
-            // we ignore gamma turns!
-            int position = first.getAbsoluteNumber();
-            int nextPosition = position + 3;
-
-            Point3d firstN = first.getCoordinates("N");
-            Point3d firstH = first.getCoordinates("H");
-            Point3d firstO = first.getCoordinates("O");
-            Point3d firstC = first.getCoordinates("C");
-
-            // FIXME : unfortunately, this misses out on PRO residues (also below)
-            if (firstN == null || firstH == null || firstO == null || firstC == null) {
+            // FIXME : unfortunately, this misses out on PRO residues
+            if (!backbone.hasHBondAtoms(first.getAbsoluteNumber())) {
                 continue;
             }
 
-            // allow for chain breaks, or return if we have reached the end
-            if (!chain.hasResidueByAbsoluteNumbering(nextPosition)) {
-                Residue second = chain.getNextResidue(position);
-                if (second == null) {   //probably reached the end of the chain!
-                    break;
-                }
-                nextPosition = second.getAbsoluteNumber();
+            if (chain.getNextResidue(first.getAbsoluteNumber()) == null) {   //probably reached the end of the chain!
+                break;
             }
 
-            // now, compare the first residue to the residues further on in the chain
-            Iterator<Residue> itr = chain.residueIterator(nextPosition);
-            while (itr.hasNext()) {
-                int secondPosition = itr.next().getAbsoluteNumber();
-
-                // we must still check this, since a chain break might move us to i + 2
-                if (secondPosition < (position + 3)) {
-                    continue;
-                }
-
-                Residue second;
-                try {
-                    second = chain.getResidueByAbsoluteNumbering(secondPosition);
-                    if (!second.isStandardAminoAcid()) {
-                        continue;
-                    }
-                } catch (IndexOutOfBoundsException i) {
-                    break;
-                }
-
-                Point3d secondN = second.getCoordinates("N");
-                Point3d secondH = second.getCoordinates("H");
-                Point3d secondO = second.getCoordinates("O");
-                Point3d secondC = second.getCoordinates("C");
-
-                // FIXME : PRO residues...
-                if (secondN == null || secondH == null || secondO == null || secondC == null) {
-                    continue;
-                }
-
-                // bonds from first N-H to second C=O
-                double firstHODistance = firstH.distance(secondO);
-                double firstNHOAngle = Geometer.angle(firstN, firstH, secondO);
-                double firstHOCAngle = Geometer.angle(firstH, secondO, secondC);
-            
-                HBond firstSecondBond = null;
-                if (firstHODistance < MAX_HO_DISTANCE && firstNHOAngle > MIN_NHO_ANGLE && firstHOCAngle > MIN_HOC_ANGLE) {
-                    firstSecondBond = new HBond(first, second, firstHODistance, firstNHOAngle, firstHOCAngle);
-                }
-
-                if (firstSecondBond != null) {
-                    chain.addHBond(firstSecondBond);
-                    first.addHBond(firstSecondBond);
-                    second.addHBond(firstSecondBond);
-                }
-
-                // bonds from second N-H to first C=O
-                double secondHODistance = secondH.distance(firstO);
-                double secondNHOAngle = Geometer.angle(secondN, secondH, firstO);
-                double secondHOCAngle = Geometer.angle(secondH, firstO, firstC);
-
-                HBond secondFirstBond = null;
-                if (secondHODistance < MAX_HO_DISTANCE && secondNHOAngle > MIN_NHO_ANGLE && secondHOCAngle > MIN_HOC_ANGLE) {
-                    secondFirstBond = new HBond(second, first, secondHODistance, secondNHOAngle, secondHOCAngle);
-                }
-
-                if (secondFirstBond != null) {
-                    chain.addHBond(secondFirstBond);
-                    first.addHBond(secondFirstBond);
-                    second.addHBond(secondFirstBond);
-                }
-            }
-            
-            // now, use these hbond assignments to determine the residue's environment
-            List<String> tags = this.convertBondsToTags(first);
+            List<String> tags = this.convertBondsToTags(table, first.getAbsoluteNumber());
             //System.out.println(first.toFullString() + " " + tags);
 
             this.updateSSEEndpoints(index, tags, chain);
@@ -207,6 +164,112 @@ public class HBondAnalyser {
         chain.addTerminii();
     }
 
+    /**
+     * Find the backbone hydrogen bonds of the chain, and add them to the chain and its
+     * residues, using the detector named by the HBOND_DETECTOR property : "BRUTE_FORCE"
+     * to compare every pair, or by default "GRID" for the spatially indexed search. The
+     * grid search of a long chain (and the placing of its amide hydrogens) is split over
+     * HBOND_THREADS threads (by default, one).
+     *
+     * This uses the geometric thresholds given; analyse(Chain) instead uses the energy
+     * criterion (always with the grid search) if HBOND_CRITERION is "ENERGY", with bonds
+     * made below MAX_HBOND_ENERGY (by default, -0.5 kcal/mol).
+     */
+    public void findHBonds(Chain chain, double maxHODistance, double minNHOAngle, double minHOCAngle) {
+        this.createHBondDetector(maxHODistance, minNHOAngle, minHOCAngle).findHBonds(chain);
+    }
+
+    // the detector for the criterion and thresholds in the properties
+    private AbstractHBondDetector createHBondDetector() throws PropertyException {
+        if (this.properties.getProperty("HBOND_CRITERION", "GEOMETRY").equals("ENERGY")) {
+            double MAX_HBOND_ENERGY = EnergyHBondDetector.DEFAULT_MAX_ENERGY;
+            try {
+                MAX_HBOND_ENERGY = Double.parseDouble(this.properties.getProperty("MAX_HBOND_ENERGY", String.valueOf(MAX_HBOND_ENERGY)));
+            } catch (NumberFormatException nfe) {
+                throw new PropertyException("Error in properties!");
+            }
+            EnergyHBondDetector energyDetector = new EnergyHBondDetector(MAX_HBOND_ENERGY);
+            energyDetector.setForkJoinPool(this.getForkJoinPool());
+            return energyDetector;
+        }
+
+        double MAX_HO_DISTANCE = 0.0;
+        double MIN_NHO_ANGLE   = 0.0;
+        double MIN_HOC_ANGLE   = 0.0;
+
+        try {
+            MAX_HO_DISTANCE = Double.parseDouble(this.properties.getProperty("MAX_HO_DISTANCE"));
+            MIN_NHO_ANGLE   = Double.parseDouble(this.properties.getProperty("MIN_NHO_ANGLE"));
+            MIN_HOC_ANGLE   = Double.parseDouble(this.properties.getProperty("MIN_HOC_ANGLE"));
+            //System.out.println("HO " + MIN_HO_DISTANCE + " NHO " + MIN_NHO_ANGLE + " HOC " + MIN_HOC_ANGLE);
+        } catch (NumberFormatException nfe) {
+            throw new PropertyException("Error in properties!");
+        }
+        return this.createHBondDetector(MAX_HO_DISTANCE, MIN_NHO_ANGLE, MIN_HOC_ANGLE);
+    }
+
+    /**
+     * Find the hydrogen bonds between the chains of the protein, with the same criteria
+     * as those within a chain, and store them in the protein. This is only done if the
+     * INTERCHAIN_HBONDS property is TRUE.
+     */
+    public void findInterChainHBonds(Protein protein) throws PropertyException {
+        if (this.properties.getProperty("INTERCHAIN_HBONDS", "FALSE").equals("TRUE")) {
+            new InterChainHBondDetector(this.createHBondDetector()).findHBonds(protein);
+        }
+    }
+
+    public AbstractHBondDetector createHBondDetector(double maxHODistance, double minNHOAngle, double minHOCAngle) {
+        String detector = this.properties.getProperty("HBOND_DETECTOR", "GRID");
+        HBondCandidateCache cache = this.getCandidateCache();
+        if (detector.equals("BRUTE_FORCE")) {
+            return new BruteForceHBondDetector(maxHODistance, minNHOAngle, minHOCAngle);
+        } else if (cache != null && maxHODistance <= cache.getCutoff()) {
+            return new CachedHBondDetector(maxHODistance, minNHOAngle, minHOCAngle, cache);
+        } else {
+            GridHBondDetector gridDetector = new GridHBondDetector(maxHODistance, minNHOAngle, minHOCAngle);
+            gridDetector.setForkJoinPool(this.getForkJoinPool());
+            return gridDetector;
+        }
+    }
+
+    /**
+     * The cache of candidate bonds, if CACHE_HBOND_CANDIDATES is TRUE; otherwise null.
+     * The candidates are kept out to CANDIDATE_HO_DISTANCE (by default, 4.0), so that
+     * analysing the same chains again with any MAX_HO_DISTANCE up to that, and any angles,
+     * just filters them. A larger MAX_HO_DISTANCE uses the grid search as usual.
+     */
+    private synchronized HBondCandidateCache getCandidateCache() throws PropertyException {
+        if (!this.properties.getProperty("CACHE_HBOND_CANDIDATES", "FALSE").equals("TRUE")) {
+            return null;
+        }
+        double cutoff;
+        try {
+            cutoff = Double.parseDouble(this.properties.getProperty("CANDIDATE_HO_DISTANCE", "4.0"));
+        } catch (NumberFormatException nfe) {
+            throw new PropertyException("Error in properties!");
+        }
+        if (this.candidateCache == null || this.candidateCache.getCutoff() != cutoff) {
+            this.candidateCache = new HBondCandidateCache(cutoff);
+        }
+        return this.candidateCache;
+    }
+
+    private synchronized ForkJoinPool getForkJoinPool() throws PropertyException {
+        if (this.pool == null) {
+            int threads;
+            try {
+                threads = Integer.parseInt(this.properties.getProperty("HBOND_THREADS", "1"));
+            } catch (NumberFormatException nfe) {
+                throw new PropertyException("Error in properties!");
+            }
+            if (threads > 1) {
+                this.pool = new ForkJoinPool(threads);
+            }
+        }
+        return this.pool;
+    }
+
     public List<String> convertBondsToTags(Residue residue) {
     	List<HBond> nTerminalHBonds = residue.getNTerminalHBonds();
     	List<HBond> cTerminalHBonds = residue.getCTerminalHBonds();
@@ -245,6 +308,50 @@ public class HBondAnalyser {
         return tags;
     }
 
+    /**
+     * As convertBondsToTags(Residue), but for a residue of the chain that the table is
+     * for, reading its bonds straight from the table's index, without making any HBonds.
+     */
+    public List<String> convertBondsToTags(HBondTable table, int residue) {
+        int donorStart = table.donorStart(residue);
+        int donorEnd = table.donorEnd(residue);
+        int acceptorStart = table.acceptorStart(residue);
+        int acceptorEnd = table.acceptorEnd(residue);
+
+        List<String> tags = new ArrayList<String>();
+
+        for (int i = donorStart; i < donorEnd; i++) {
+            int n = table.getResidueSeparation(table.donorBond(i));
+            String nTag = this.convertBondsToTag(n, 0);
+            if (nTag != null) {
+                tags.add(nTag);
+            }
+        }
+
+        for (int j = acceptorStart; j < acceptorEnd; j++) {
+            int c = table.getResidueSeparation(table.acceptorBond(j));
+            String cTag = this.convertBondsToTag(0, c);
+            if (cTag != null) {
+                tags.add(cTag);
+            }
+        }
+
+        for (int i = donorStart; i < donorEnd; i++) {
+            int n = table.getResidueSeparation(table.donorBond(i));
+
+            for (int j = acceptorStart; j < acceptorEnd; j++) {
+                int c = table.getResidueSeparation(table.acceptorBond(j));
+
+                String ncTag = this.convertBondsToTag(n, c);
+                if (ncTag != null) {
+                    tags.add(ncTag);
+                }
+            }
+        }
+
+        return tags;
+    }
+
     public String convertBondsToTag(int n, int c) {
 
         // neither has a bond
@@ -0,0 +1,127 @@
+package translation;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import translation.model.BackboneCoordinates;
+
+/**
+ * The candidate bonds of recently analysed chains - every donor, acceptor pair within
+ * a loose H..O cutoff, with its distance and angles - so that analysing the same chain
+ * again with different thresholds only has to filter the candidates.
+ *
+ * Entries are kept by chain label, and are only used if the backbone of the chain is the
+ * same as the one they were made from; a chain with the same label but a different
+ * backbone replaces the entry.
+ */
+public class HBondCandidateCache {
+
+    private double cutoff;
+
+    private Map<String, Candidates> candidatesByLabel;
+
+    /**
+     * @param cutoff the largest H..O distance of the candidates, and so the largest maximum distance that can be filtered for
+     */
+    public HBondCandidateCache(double cutoff) {
+        this.cutoff = cutoff;
+        this.candidatesByLabel = new HashMap<String, Candidates>();
+    }
+
+    public double getCutoff() {
+        return this.cutoff;
+    }
+
+    /**
+     * @return the candidates for this chain, or null if there are none for this backbone
+     */
+    public synchronized Candidates get(String label, BackboneCoordinates backbone) {
+        Candidates candidates = this.candidatesByLabel.get(label);
+        if (candidates != null && candidates.isFor(backbone)) {
+            return candidates;
+        }
+        return null;
+    }
+
+    public synchronized void put(String label, Candidates candidates) {
+        this.candidatesByLabel.put(label, candidates);
+    }
+
+    /**
+     * The candidate bonds of one chain, in the order of the residue pair (first, second),
+     * with first-to-second before second-to-first - the order that bonds are added in.
+     */
+    public static class Candidates {
+
+        // the atoms a bond depends on, which must be the same for the candidates to be used
+        private static final int[] BOND_ATOMS = { BackboneCoordinates.N, BackboneCoordinates.H, BackboneCoordinates.O, BackboneCoordinates.C };
+
+        private BackboneCoordinates backbone;
+
+        private int size;
+
+        private int[] donors;
+
+        private int[] acceptors;
+
+        private double[] distances;
+
+        private double[] nhoAngles;
+
+        private double[] hocAngles;
+
+        public Candidates(BackboneCoordinates backbone, int size, int[] donors, int[] acceptors, double[] distances, double[] nhoAngles, double[] hocAngles) {
+            this.backbone = backbone;
+            this.size = size;
+            this.donors = donors;
+            this.acceptors = acceptors;
+            this.distances = distances;
+            this.nhoAngles = nhoAngles;
+            this.hocAngles = hocAngles;
+        }
+
+        public int size() {
+            return this.size;
+        }
+
+        public int getDonor(int i) {
+            return this.donors[i];
+        }
+
+        public int getAcceptor(int i) {
+            return this.acceptors[i];
+        }
+
+        public double getDistance(int i) {
+            return this.distances[i];
+        }
+
+        public double getNHOAngle(int i) {
+            return this.nhoAngles[i];
+        }
+
+        public double getHOCAngle(int i) {
+            return this.hocAngles[i];
+        }
+
+        public boolean isFor(BackboneCoordinates other) {
+            if (other == this.backbone) {
+                return true;
+            }
+            if (other.length() != this.backbone.length()) {
+                return false;
+            }
+            for (int i = 0; i < BOND_ATOMS.length; i++) {
+                int atom = BOND_ATOMS[i];
+                if (!Arrays.equals(other.getPresent(atom), this.backbone.getPresent(atom))
+                        || !Arrays.equals(other.getX(atom), this.backbone.getX(atom))
+                        || !Arrays.equals(other.getY(atom), this.backbone.getY(atom))
+                        || !Arrays.equals(other.getZ(atom), this.backbone.getZ(atom))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package translation;
+
+import translation.model.Chain;
+
+/**
+ * Finds the backbone hydrogen bonds within a chain, and adds them to the chain and to
+ * the two residues of each bond.
+ *
+ * Whatever the method, the bonds are added in order of the residue pair (first, second),
+ * with the bond from first to second before the one from second to first, so that the
+ * order of each residue's bonds does not depend on the detector used.
+ */
+public interface HBondDetector {
+
+    public void findHBonds(Chain chain);
+
+}
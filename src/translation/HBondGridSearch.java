@@ -0,0 +1,175 @@
+package translation;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import translation.model.BackboneCoordinates;
+import translation.model.Chain;
+
+/**
+ * The search of the grid detectors, for any criterion : the acceptors' screen atoms (for
+ * the geometric criteria, the O) are put into an AtomGrid, and each donor's (the H) is
+ * only tested against those in the cells around it. The bonds found are the same as for
+ * testing every pair, and are added in the same order.
+ *
+ * For long chains, the donors can be split into blocks that are searched on a fork/join
+ * pool. The bonds from all the blocks are sorted together before any are added, so the
+ * result does not depend on how the work was split, or in what order it finished.
+ */
+class HBondGridSearch {
+
+    // the number of donors in a block that is searched without splitting further
+    private static final int BLOCK_SIZE = 256;
+
+    private AbstractHBondDetector criterion;
+
+    private ForkJoinPool pool;
+
+    /**
+     * @param criterion the detector whose pairing rules, screen and test are used
+     * @param pool the pool to search blocks of donors on, or null to search them all on the calling thread
+     */
+    public HBondGridSearch(AbstractHBondDetector criterion, ForkJoinPool pool) {
+        this.criterion = criterion;
+        this.pool = pool;
+    }
+
+    public void findHBonds(Chain chain) {
+        double distance = this.criterion.screenDistance();
+        if (!(distance > 0)) {
+            return;
+        }
+
+        BackboneCoordinates backbone = chain.getBackboneCoordinates();
+        boolean[] usableAsFirst = this.criterion.usableAsFirst(chain, backbone);
+        boolean[] usableAsSecond = this.criterion.usableAsSecond(chain, backbone);
+        int length = chain.length();
+
+        // any residue that can be in a pair, and has the atoms to screen by, can be an acceptor, or a donor
+        int donorAtom = this.criterion.donorScreenAtom();
+        int acceptorAtom = this.criterion.acceptorScreenAtom();
+        boolean[] usable = new boolean[length];
+        boolean[] usableAsAcceptor = new boolean[length];
+        for (int i = 0; i < length; i++) {
+            usable[i] = (usableAsFirst[i] || usableAsSecond[i]) && backbone.has(donorAtom, i);
+            usableAsAcceptor[i] = (usableAsFirst[i] || usableAsSecond[i]) && backbone.has(acceptorAtom, i);
+        }
+
+        AtomGrid acceptors = new AtomGrid(backbone.getX(acceptorAtom), backbone.getY(acceptorAtom), backbone.getZ(acceptorAtom), usableAsAcceptor, distance);
+        DonorBlock all = new DonorBlock(backbone, acceptors, usable, usableAsFirst, usableAsSecond, 0, length);
+
+        long[] bonds;
+        if (this.pool != null && length > BLOCK_SIZE) {
+            bonds = this.pool.invoke(all);
+        } else {
+            bonds = all.search();
+        }
+        Arrays.sort(bonds);
+
+        for (int b = 0; b < bonds.length; b++) {
+            int first = (int) (bonds[b] >>> 22);
+            int second = (int) ((bonds[b] >>> 1) & ((1 << 21) - 1));
+            if ((bonds[b] & 1) == 0) {
+                this.criterion.addHBond(chain, backbone, first, second);
+            } else {
+                this.criterion.addHBond(chain, backbone, second, first);
+            }
+        }
+    }
+
+    /**
+     * The bonds for a range of donors, as (first, second, direction) packed into longs
+     * so that sorting gives the order to add them in. The range is split in half until
+     * it is no bigger than a block.
+     */
+    private class DonorBlock extends RecursiveTask<long[]> {
+
+        private static final long serialVersionUID = 1L;
+
+        private BackboneCoordinates backbone;
+
+        private AtomGrid acceptors;
+
+        private boolean[] usable;
+
+        private boolean[] usableAsFirst;
+
+        private boolean[] usableAsSecond;
+
+        private int start;
+
+        private int end;
+
+        public DonorBlock(BackboneCoordinates backbone, AtomGrid acceptors, boolean[] usable, boolean[] usableAsFirst, boolean[] usableAsSecond, int start, int end) {
+            this.backbone = backbone;
+            this.acceptors = acceptors;
+            this.usable = usable;
+            this.usableAsFirst = usableAsFirst;
+            this.usableAsSecond = usableAsSecond;
+            this.start = start;
+            this.end = end;
+        }
+
+        protected long[] compute() {
+            if (this.end - this.start <= BLOCK_SIZE) {
+                return this.search();
+            }
+
+            int middle = (this.start + this.end) >>> 1;
+            DonorBlock left = new DonorBlock(this.backbone, this.acceptors, this.usable, this.usableAsFirst, this.usableAsSecond, this.start, middle);
+            DonorBlock right = new DonorBlock(this.backbone, this.acceptors, this.usable, this.usableAsFirst, this.usableAsSecond, middle, this.end);
+            left.fork();
+            long[] rightBonds = right.compute();
+            long[] leftBonds = left.join();
+
+            long[] bonds = new long[leftBonds.length + rightBonds.length];
+            System.arraycopy(leftBonds, 0, bonds, 0, leftBonds.length);
+            System.arraycopy(rightBonds, 0, bonds, leftBonds.length, rightBonds.length);
+            return bonds;
+        }
+
+        public long[] search() {
+            int donorAtom = HBondGridSearch.this.criterion.donorScreenAtom();
+            double distance = HBondGridSearch.this.criterion.screenDistance();
+            double[] dx = this.backbone.getX(donorAtom);
+            double[] dy = this.backbone.getY(donorAtom);
+            double[] dz = this.backbone.getZ(donorAtom);
+            int[] near = new int[this.usable.length];
+
+            long[] bonds = new long[16];
+            int numberOfBonds = 0;
+
+            for (int donor = this.start; donor < this.end; donor++) {
+                if (!this.usable[donor]) {
+                    continue;
+                }
+                // screen the acceptors by distance first, as most of those in the nearby cells are too far
+                int numberNear = this.acceptors.findWithin(dx[donor], dy[donor], dz[donor], distance, near);
+                for (int k = 0; k < numberNear; k++) {
+                    int acceptor = near[k];
+                    int first = Math.min(donor, acceptor);
+                    int second = Math.max(donor, acceptor);
+                    if (second - first < 3 || !this.usableAsFirst[first] || !this.usableAsSecond[second]) {
+                        continue;
+                    }
+
+                    // the angles themselves are only worked out for the bonds that are accepted
+                    if (HBondGridSearch.this.criterion.accept(this.backbone, donor, acceptor)) {
+                        if (numberOfBonds == bonds.length) {
+                            long[] larger = new long[bonds.length * 2];
+                            System.arraycopy(bonds, 0, larger, 0, numberOfBonds);
+                            bonds = larger;
+                        }
+                        int direction = (donor == first) ? 0 : 1;
+                        bonds[numberOfBonds++] = ((((long) first << 21) | second) << 1) | direction;
+                    }
+                }
+            }
+
+            long[] found = new long[numberOfBonds];
+            System.arraycopy(bonds, 0, found, 0, numberOfBonds);
+            return found;
+        }
+    }
+}
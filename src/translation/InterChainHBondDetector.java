@@ -0,0 +1,118 @@
+package translation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import translation.model.BackboneCoordinates;
+import translation.model.Chain;
+import translation.model.HBond;
+import translation.model.Protein;
+import translation.model.Residue;
+
+/**
+ * Finds the backbone hydrogen bonds between different chains of a protein, such as
+ * those between the strands of a sheet that spans two subunits.
+ *
+ * The backbones of all the chains are put into one set of arrays, and the acceptor O
+ * atoms (or whichever the criterion screens by) into one AtomGrid, so the cost grows
+ * with the number of atoms rather than with the number of pairs of chains. The bonds
+ * are accepted by the same test as a detector for bonds within a chain, and are stored
+ * in the protein, in order of donor and then acceptor (by chain, and by residue within
+ * the chain), replacing any found before. They are not added to the residues, as the
+ * analysis of each chain only expects bonds within that chain; the sheets of a chain
+ * stay within it, and the pairs of strands that the bonds join across chains are given
+ * by Protein.getInterChainStrandPairs instead, and reported by Protein.toString.
+ */
+public class InterChainHBondDetector {
+
+    private AbstractHBondDetector criterion;
+
+    /**
+     * @param criterion the detector whose test for accepting a bond is used
+     */
+    public InterChainHBondDetector(AbstractHBondDetector criterion) {
+        this.criterion = criterion;
+    }
+
+    public void findHBonds(Protein protein) {
+        protein.clearInterChainHBonds();
+        double screenDistance = this.criterion.screenDistance();
+        if (!(screenDistance > 0)) {
+            return;
+        }
+
+        // number the residues of all the (protein) chains in order, noting the chain of each
+        List<Residue> residues = new ArrayList<Residue>();
+        List<Integer> chainStarts = new ArrayList<Integer>();
+        Iterator<Chain> chains = protein.chainIterator();
+        while (chains.hasNext()) {
+            Chain chain = chains.next();
+            if (chain.isDNA()) {
+                continue;
+            }
+            chainStarts.add(Integer.valueOf(residues.size()));
+            Iterator<Residue> chainResidues = chain.residueIterator();
+            while (chainResidues.hasNext()) {
+                residues.add(chainResidues.next());
+            }
+        }
+        if (chainStarts.size() < 2) {
+            return;
+        }
+
+        int length = residues.size();
+        int[] chainIndex = new int[length];
+        for (int c = 0; c < chainStarts.size(); c++) {
+            int end = (c + 1 < chainStarts.size()) ? chainStarts.get(c + 1).intValue() : length;
+            Arrays.fill(chainIndex, chainStarts.get(c).intValue(), end, c);
+        }
+
+        BackboneCoordinates backbone = new BackboneCoordinates(residues);
+        int donorAtom = this.criterion.donorScreenAtom();
+        int acceptorAtom = this.criterion.acceptorScreenAtom();
+        boolean[] usable = new boolean[length];
+        boolean[] usableAsAcceptor = new boolean[length];
+        for (int i = 0; i < length; i++) {
+            boolean hasAtoms = backbone.hasHBondAtoms(i) && residues.get(i).isStandardAminoAcid();
+            usable[i] = hasAtoms && backbone.has(donorAtom, i);
+            usableAsAcceptor[i] = hasAtoms && backbone.has(acceptorAtom, i);
+        }
+
+        int O = BackboneCoordinates.O;
+        int H = BackboneCoordinates.H;
+        AtomGrid acceptorGrid = new AtomGrid(backbone.getX(acceptorAtom), backbone.getY(acceptorAtom), backbone.getZ(acceptorAtom), usableAsAcceptor, screenDistance);
+        double[] dx = backbone.getX(donorAtom);
+        double[] dy = backbone.getY(donorAtom);
+        double[] dz = backbone.getZ(donorAtom);
+        int[] near = new int[length];
+        int[] acceptors = new int[length];
+
+        for (int donor = 0; donor < length; donor++) {
+            if (!usable[donor]) {
+                continue;
+            }
+            int numberNear = acceptorGrid.findWithin(dx[donor], dy[donor], dz[donor], screenDistance, near);
+
+            // keep only the acceptors on other chains, in residue order
+            int numberOfAcceptors = 0;
+            for (int k = 0; k < numberNear; k++) {
+                if (chainIndex[near[k]] != chainIndex[donor]) {
+                    acceptors[numberOfAcceptors++] = near[k];
+                }
+            }
+            Arrays.sort(acceptors, 0, numberOfAcceptors);
+
+            for (int k = 0; k < numberOfAcceptors; k++) {
+                int acceptor = acceptors[k];
+                if (this.criterion.accept(backbone, donor, acceptor)) {
+                    double distance = backbone.distance(H, donor, O, acceptor);
+                    double nhoAngle = backbone.angle(BackboneCoordinates.N, donor, H, donor, O, acceptor);
+                    double hocAngle = backbone.angle(H, donor, O, acceptor, BackboneCoordinates.C, acceptor);
+                    protein.addInterChainHBond(new HBond(residues.get(donor), residues.get(acceptor), distance, nhoAngle, hocAngle));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,402 @@
+package translation;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.vecmath.Point3d;
+
+import translation.model.Chain;
+import translation.model.Protein;
+import translation.model.Residue;
+
+/**
+ * Reads the _atom_site loop of an mmCIF (PDBx) file into the same Protein model as
+ * the PDB readers. Only the columns that the translation needs are ever looked at :
+ * the others are skipped over without being turned into Strings, and the scan of a
+ * row stops at the last column that is needed.
+ *
+ * Only the first model is read, and rows are assumed to be one per line, as they are
+ * in the files from the PDB. As with the PDB readers, only the backbone atoms are kept
+ * unless allAtoms is set.
+ */
+public class MMCIFReader {
+
+    private static final String ATOM_SITE = "_atom_site.";
+
+    // the slots for the columns we need, some of which have alternatives
+    private static final int GROUP     = 0;
+    private static final int ATOM      = 1;
+    private static final int RESIDUE   = 2;
+    private static final int CHAIN     = 3;
+    private static final int NUMBER    = 4;
+    private static final int X         = 5;
+    private static final int Y         = 6;
+    private static final int Z         = 7;
+    private static final int MODEL     = 8;
+    private static final int INSERTION = 9;
+    private static final int LABEL_NUMBER = 10;
+    private static final int NUMBER_OF_SLOTS = 11;
+
+    // column names for each slot, in order of preference
+    private static final String[][] COLUMN_NAMES = {
+        { "group_PDB" },
+        { "label_atom_id", "auth_atom_id" },
+        { "label_comp_id", "auth_comp_id" },
+        { "auth_asym_id", "label_asym_id" },
+        { "auth_seq_id", "label_seq_id" },
+        { "Cartn_x" },
+        { "Cartn_y" },
+        { "Cartn_z" },
+        { "pdbx_PDB_model_num" },
+        { "pdbx_PDB_ins_code" },
+        { "label_seq_id" },
+    };
+
+    // the first few of these are the backbone atoms
+    private static final String[] KNOWN_ATOM_TYPES = { "N", "CA", "C", "O", "H", "CB" };
+
+    private static final int NUMBER_OF_BACKBONE_TYPES = Residue.BACKBONE_ATOM_TYPES.length;
+
+    private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10 };
+
+    private String pdbID;
+
+    private ChainListener listener;
+
+    private Chain currentChain;
+
+    private Residue currentResidue;
+
+    private String firstModel;
+
+    // the header of the loop currently being read, and where its columns go
+    private List<String> columns;
+
+    private int[] slotForColumn;
+
+    private int lastWantedColumn;
+
+    // the bounds of the tokens of the current row, for each slot
+    private int[] tokenStarts;
+
+    private int[] tokenEnds;
+
+    private boolean allAtoms;
+
+    public MMCIFReader(ChainListener listener) {
+        this(listener, false);
+    }
+
+    public MMCIFReader(ChainListener listener, boolean allAtoms) {
+        this.allAtoms = allAtoms;
+        this.pdbID = "Unknown";
+        this.listener = listener;
+        this.currentChain = null;
+        this.currentResidue = null;
+        this.firstModel = null;
+        this.columns = null;
+        this.slotForColumn = null;
+        this.tokenStarts = new int[NUMBER_OF_SLOTS];
+        this.tokenEnds = new int[NUMBER_OF_SLOTS];
+    }
+
+    public static boolean isMMCIF(String filename) {
+        return filename.endsWith(".cif") || filename.endsWith(".cif.gz");
+    }
+
+    public static Protein read(String filename) throws IOException {
+        return MMCIFReader.read(filename, false);
+    }
+
+    public static Protein read(String filename, boolean allAtoms) throws IOException {
+        ChainCollector collector = new ChainCollector();
+        String pdbID = MMCIFReader.read(filename, collector, allAtoms);
+        return collector.toProtein(pdbID);
+    }
+
+    public static String read(String filename, ChainListener listener) throws IOException {
+        return MMCIFReader.read(filename, listener, false);
+    }
+
+    public static String read(String filename, ChainListener listener, boolean allAtoms) throws IOException {
+        InputStream in = CompressedPDBReader.open(filename);
+        try {
+            return MMCIFReader.read(in, listener, allAtoms);
+        } finally {
+            in.close();
+        }
+    }
+
+    public static String read(InputStream in, ChainListener listener, boolean allAtoms) throws IOException {
+        MMCIFReader reader = new MMCIFReader(listener, allAtoms);
+        BufferedReader bufferer = new BufferedReader(new InputStreamReader(in, "ISO-8859-1"), 64 * 1024);
+        String line;
+        while ((line = bufferer.readLine()) != null) {
+            reader.parseLine(line);
+        }
+        reader.finish();
+        return reader.pdbID;
+    }
+
+    public void parseLine(String line) {
+        if (line.startsWith("data_")) {
+            if (this.pdbID.equals("Unknown")) {
+                this.pdbID = line.substring(5).trim();
+            }
+            this.columns = null;
+            this.slotForColumn = null;
+        } else if (line.startsWith("loop_")) {
+            this.columns = new ArrayList<String>();
+            this.slotForColumn = null;
+        } else if (line.startsWith("_")) {
+            // only the header of an atom_site loop is of interest
+            if (this.columns != null && this.slotForColumn == null && line.startsWith(ATOM_SITE)) {
+                this.columns.add(line.substring(ATOM_SITE.length()).trim());
+            } else {
+                this.columns = null;
+                this.slotForColumn = null;
+            }
+        } else if (line.startsWith("#")) {
+            this.columns = null;
+            this.slotForColumn = null;
+        } else if (this.columns != null && !this.columns.isEmpty()) {
+            if (this.slotForColumn == null) {
+                this.mapColumns();
+            }
+            if (this.tokenize(line)) {
+                this.parseRow(line);
+            }
+        }
+    }
+
+    /**
+     * Hand the last chain to the listener; call this once the input is exhausted.
+     */
+    public void finish() {
+        if (this.currentChain != null) {
+            this.listener.chainRead(this.currentChain);
+            this.currentChain = null;
+            this.currentResidue = null;
+        }
+    }
+
+    // work out which column fills each slot, once the loop header has been read; a
+    // column only fills one slot, so LABEL_NUMBER is left empty if NUMBER already has it
+    private void mapColumns() {
+        this.slotForColumn = new int[this.columns.size()];
+        for (int i = 0; i < this.slotForColumn.length; i++) {
+            this.slotForColumn[i] = -1;
+        }
+
+        this.lastWantedColumn = -1;
+        for (int slot = 0; slot < NUMBER_OF_SLOTS; slot++) {
+            for (int j = 0; j < COLUMN_NAMES[slot].length; j++) {
+                int column = this.columns.indexOf(COLUMN_NAMES[slot][j]);
+                if (column != -1 && this.slotForColumn[column] == -1) {
+                    this.slotForColumn[column] = slot;
+                    this.lastWantedColumn = Math.max(this.lastWantedColumn, column);
+                    break;
+                }
+            }
+        }
+    }
+
+    // find the tokens for the slots, stopping at the last column we need
+    private boolean tokenize(String line) {
+        for (int slot = 0; slot < NUMBER_OF_SLOTS; slot++) {
+            this.tokenStarts[slot] = -1;
+        }
+
+        int length = line.length();
+        int position = 0;
+        for (int column = 0; column <= this.lastWantedColumn; column++) {
+            while (position < length && line.charAt(position) <= ' ') {
+                position++;
+            }
+            if (position == length) {
+                return false;
+            }
+
+            int start;
+            int end;
+            char c = line.charAt(position);
+            if (c == '\'' || c == '"') {
+                // a quoted token ends at a matching quote followed by whitespace
+                start = position + 1;
+                end = start;
+                while (end < length && !(line.charAt(end) == c && (end + 1 == length || line.charAt(end + 1) <= ' '))) {
+                    end++;
+                }
+                position = Math.min(end + 1, length);
+            } else {
+                start = position;
+                end = position;
+                while (end < length && line.charAt(end) > ' ') {
+                    end++;
+                }
+                position = end;
+            }
+
+            int slot = this.slotForColumn[column];
+            if (slot != -1) {
+                this.tokenStarts[slot] = start;
+                this.tokenEnds[slot] = end;
+            }
+        }
+        return true;
+    }
+
+    private void parseRow(String line) {
+        if (!this.tokenEquals(line, GROUP, "ATOM")) {
+            return;
+        }
+
+        // only read the first model
+        if (this.tokenStarts[MODEL] != -1) {
+            if (this.firstModel == null) {
+                this.firstModel = this.token(line, MODEL);
+            } else if (!this.tokenEquals(line, MODEL, this.firstModel)) {
+                return;
+            }
+        }
+
+        // an atom with an unknown position is skipped
+        if (this.isPlaceholder(line, X) || this.isPlaceholder(line, Y) || this.isPlaceholder(line, Z)) {
+            return;
+        }
+
+        // an unknown author number falls back to the label number, if there is one
+        int numberSlot = NUMBER;
+        if (this.isPlaceholder(line, NUMBER)) {
+            if (this.tokenStarts[LABEL_NUMBER] == -1 || this.isPlaceholder(line, LABEL_NUMBER)) {
+                return;
+            }
+            numberSlot = LABEL_NUMBER;
+        }
+
+        if (this.currentChain == null || !this.chainLabelMatches(line, this.currentChain.getLabel())) {
+            this.finish();
+            this.currentChain = new Chain(this.chainLabel(line));
+        }
+
+        int pdbNumber = (int) MMCIFReader.parseNumber(line, this.tokenStarts[numberSlot], this.tokenEnds[numberSlot]);
+        char insertionCode = this.insertionCode(line);
+        if (this.currentResidue == null || this.currentResidue.getPDBNumber() != pdbNumber || this.currentResidue.getInsertionCode() != insertionCode) {
+            this.currentResidue = this.currentChain.getResidueByPDBNumbering(pdbNumber, insertionCode);
+            if (this.currentResidue == null) {
+                this.currentResidue = this.currentChain.createResidue(pdbNumber, insertionCode, this.token(line, RESIDUE));
+            }
+        }
+
+        String atomType = this.atomType(line);
+        if (atomType == null) {
+            return;
+        }
+        double x = MMCIFReader.parseNumber(line, this.tokenStarts[X], this.tokenEnds[X]);
+        double y = MMCIFReader.parseNumber(line, this.tokenStarts[Y], this.tokenEnds[Y]);
+        double z = MMCIFReader.parseNumber(line, this.tokenStarts[Z], this.tokenEnds[Z]);
+        this.currentResidue.setAtom(atomType, new Point3d(x, y, z));
+    }
+
+    // '?' and '.' mean that there is no insertion code
+    private char insertionCode(String line) {
+        int start = this.tokenStarts[INSERTION];
+        if (start == -1 || this.tokenEnds[INSERTION] - start != 1 || this.isPlaceholder(line, INSERTION)) {
+            return Residue.NO_INSERTION_CODE;
+        }
+        return line.charAt(start);
+    }
+
+    // if the token for a slot is '?' (unknown) or '.' (not applicable), rather than a value
+    private boolean isPlaceholder(String line, int slot) {
+        int start = this.tokenStarts[slot];
+        if (start == -1 || this.tokenEnds[slot] - start != 1) {
+            return false;
+        }
+        char c = line.charAt(start);
+        return c == '?' || c == '.';
+    }
+
+    // make the chain label look like the two columns of a PDB file
+    private String chainLabel(String line) {
+        String chainID = this.token(line, CHAIN);
+        if (chainID.length() == 1) {
+            return " " + chainID;
+        } else {
+            return chainID;
+        }
+    }
+
+    private boolean chainLabelMatches(String line, String label) {
+        if (this.tokenEnds[CHAIN] - this.tokenStarts[CHAIN] == 1) {
+            return label.length() == 2 && label.charAt(0) == ' ' && label.charAt(1) == line.charAt(this.tokenStarts[CHAIN]);
+        } else {
+            return this.tokenEquals(line, CHAIN, label);
+        }
+    }
+
+    private String token(String line, int slot) {
+        return line.substring(this.tokenStarts[slot], this.tokenEnds[slot]);
+    }
+
+    private boolean tokenEquals(String line, int slot, String value) {
+        int start = this.tokenStarts[slot];
+        return start != -1 && this.tokenEnds[slot] - start == value.length() && line.regionMatches(start, value, 0, value.length());
+    }
+
+    // the common backbone names are shared, rather than made for every atom; null for
+    // a side-chain atom if only the backbone is wanted
+    private String atomType(String line) {
+        int numberOfTypes = (this.allAtoms) ? KNOWN_ATOM_TYPES.length : NUMBER_OF_BACKBONE_TYPES;
+        for (int i = 0; i < numberOfTypes; i++) {
+            if (this.tokenEquals(line, ATOM, KNOWN_ATOM_TYPES[i])) {
+                return KNOWN_ATOM_TYPES[i];
+            }
+        }
+        return (this.allAtoms) ? this.token(line, ATOM) : null;
+    }
+
+    // a fixed-point parse that rounds the same as Double.parseDouble, as in MappedPDBReader
+    private static double parseNumber(String line, int start, int end) {
+        if (start == -1) {
+            throw new NumberFormatException("Missing column in atom_site");
+        }
+        long mantissa = 0;
+        int decimals = 0;
+        boolean negative = false;
+        boolean seenPoint = false;
+        for (int i = start; i < end; i++) {
+            char c = line.charAt(i);
+            if (c >= '0' && c <= '9') {
+                mantissa = (mantissa * 10) + (c - '0');
+                if (seenPoint) {
+                    decimals++;
+                }
+            } else if (c == '.' && !seenPoint) {
+                seenPoint = true;
+            } else if ((c == '-' || c == '+') && i == start) {
+                negative = c == '-';
+            } else {
+                return Double.parseDouble(line.substring(start, end));
+            }
+        }
+        if (decimals >= POWERS_OF_TEN.length || end - start > 18) {
+            return Double.parseDouble(line.substring(start, end));
+        }
+        double value = mantissa / POWERS_OF_TEN[decimals];
+        return (negative) ? -value : value;
+    }
+
+    public static void main(String[] args) {
+        try {
+            Protein protein = MMCIFReader.read(args[0]);
+            System.out.println(protein.toString());
+        } catch (IOException ioe) {
+            System.err.println(ioe);
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package translation;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import javax.vecmath.Point3d;
+
+import translation.model.Chain;
+import translation.model.Protein;
+import translation.model.Residue;
+
+/**
+ * Reads PDB files by mapping them into memory and parsing the fixed ATOM columns
+ * directly from the bytes, rather than going through a line of Strings per atom.
+ * The resulting Protein is the same as the one built by the old line-based reader.
+ *
+ * Each chain is handed to a ChainListener as soon as the chain label changes, so
+ * large assemblies can be analysed chain by chain without holding the whole model.
+ *
+ * By default only the backbone atoms (N, CA, C, O and H) are kept, as nothing else is
+ * used by the analysis; the side-chain records are skipped before their coordinates
+ * are parsed. Pass allAtoms to keep every atom.
+ */
+public class MappedPDBReader {
+
+    // large files are mapped a window at a time
+    private static final int WINDOW_SIZE = 64 * 1024 * 1024;
+
+    // the shortest ATOM record that still has all three coordinates
+    private static final int MIN_ATOM_RECORD_LENGTH = 54;
+
+    // the common atom names, so that we don't make a new String for each atom;
+    // the first few are the backbone atoms
+    private static final String[] KNOWN_ATOM_TYPES = { "N", "CA", "C", "O", "H", "CB" };
+
+    private static final int NUMBER_OF_BACKBONE_TYPES = Residue.BACKBONE_ATOM_TYPES.length;
+
+    private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10 };
+
+    private String pdbID;
+
+    private ChainListener listener;
+
+    private Chain currentChain;
+
+    private Residue currentResidue;
+
+    private boolean allAtoms;
+
+    public MappedPDBReader(ChainListener listener) {
+        this(listener, false);
+    }
+
+    public MappedPDBReader(ChainListener listener, boolean allAtoms) {
+        this.pdbID = "Unknown";
+        this.listener = listener;
+        this.currentChain = null;
+        this.currentResidue = null;
+        this.allAtoms = allAtoms;
+    }
+
+    public static Protein read(String filename) throws IOException {
+        return MappedPDBReader.read(filename, false);
+    }
+
+    public static Protein read(String filename, boolean allAtoms) throws IOException {
+        ChainCollector collector = new ChainCollector();
+        String pdbID = MappedPDBReader.read(filename, collector, allAtoms);
+        return collector.toProtein(pdbID);
+    }
+
+    public static String read(String filename, ChainListener listener) throws IOException {
+        return MappedPDBReader.read(filename, listener, false);
+    }
+
+    /**
+     * Read the file, passing each chain to the listener as soon as it is complete.
+     *
+     * @param filename the PDB file to read
+     * @param listener the receiver of the chains, in file order
+     * @param allAtoms if true, keep the side-chain atoms as well as the backbone
+     * @return the PDB ID from the header, or "Unknown"
+     */
+    public static String read(String filename, ChainListener listener, boolean allAtoms) throws IOException {
+        MappedPDBReader reader = new MappedPDBReader(listener, allAtoms);
+        FileInputStream in = new FileInputStream(filename);
+        try {
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                long length = Math.min(WINDOW_SIZE, size - position);
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                boolean isLastWindow = position + length == size;
+                int consumed = reader.parse(buffer, isLastWindow);
+
+                // a line longer than the window would otherwise never be consumed
+                if (consumed == 0 && !isLastWindow) {
+                    throw new IOException("Line too long in " + filename + " at byte " + position);
+                }
+                position += consumed;
+            }
+        } finally {
+            in.close();
+        }
+        reader.finish();
+        return reader.getPDBID();
+    }
+
+    /**
+     * Parse all the complete lines in the buffer, from its position to its limit.
+     *
+     * @param buffer the bytes to parse
+     * @param endOfInput if true, a final line without a newline is also parsed
+     * @return the number of bytes consumed (up to the end of the last complete line)
+     */
+    public int parse(ByteBuffer buffer, boolean endOfInput) {
+        int start = buffer.position();
+        int limit = buffer.limit();
+        int lineStart = start;
+        for (int i = start; i < limit; i++) {
+            if (buffer.get(i) == '\n') {
+                this.parseLine(buffer, lineStart, i);
+                lineStart = i + 1;
+            }
+        }
+        if (endOfInput && lineStart < limit) {
+            this.parseLine(buffer, lineStart, limit);
+            lineStart = limit;
+        }
+        return lineStart - start;
+    }
+
+    /**
+     * Hand the last chain to the listener; call this once the input is exhausted.
+     */
+    public void finish() {
+        if (this.currentChain != null) {
+            this.listener.chainRead(this.currentChain);
+            this.currentChain = null;
+            this.currentResidue = null;
+        }
+    }
+
+    public String getPDBID() {
+        return this.pdbID;
+    }
+
+    private void parseLine(ByteBuffer buffer, int start, int end) {
+        // ignore the carriage return of DOS line endings, as readLine would
+        if (end > start && buffer.get(end - 1) == '\r') {
+            end--;
+        }
+
+        int length = end - start;
+        if (length <= 4) {
+            return;
+        }
+
+        if (MappedPDBReader.startsWith(buffer, start, "ATOM")) {
+            if (length >= MIN_ATOM_RECORD_LENGTH) {
+                this.parseAtomRecord(buffer, start);
+            }
+        } else if (MappedPDBReader.startsWith(buffer, start, "HEAD")) {
+            this.pdbID = MappedPDBReader.toString(buffer, end - 4, end);
+        }
+    }
+
+    private void parseAtomRecord(ByteBuffer buffer, int start) {
+        // columns 20-21 are the chain label; only make a new String if it changes
+        if (this.currentChain == null || !MappedPDBReader.matches(buffer, start + 20, start + 22, this.currentChain.getLabel())) {
+            this.finish();
+            this.currentChain = new Chain(MappedPDBReader.toString(buffer, start + 20, start + 22));
+        }
+
+        // column 26 is the insertion code, which distinguishes residues with the same number
+        int pdbNumber = MappedPDBReader.parseInt(buffer, start + 22, start + 26);
+        char insertionCode = (char) (buffer.get(start + 26) & 0xff);
+        if (this.currentResidue == null || this.currentResidue.getPDBNumber() != pdbNumber || this.currentResidue.getInsertionCode() != insertionCode) {
+            this.currentResidue = this.currentChain.getResidueByPDBNumbering(pdbNumber, insertionCode);
+            if (this.currentResidue == null) {
+                String residueType = MappedPDBReader.toString(buffer, start + 17, start + 20);
+                this.currentResidue = this.currentChain.createResidue(pdbNumber, insertionCode, residueType);
+            }
+        }
+
+        String atomType = MappedPDBReader.atomType(buffer, start + 11, start + 16, this.allAtoms);
+        if (atomType == null) {
+            return;
+        }
+        double x = MappedPDBReader.parseDouble(buffer, start + 30, start + 38);
+        double y = MappedPDBReader.parseDouble(buffer, start + 38, start + 46);
+        double z = MappedPDBReader.parseDouble(buffer, start + 46, start + 54);
+        this.currentResidue.setAtom(atomType, new Point3d(x, y, z));
+    }
+
+    private static boolean startsWith(ByteBuffer buffer, int start, String token) {
+        for (int i = 0; i < token.length(); i++) {
+            if (buffer.get(start + i) != token.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean matches(ByteBuffer buffer, int start, int end, String s) {
+        if (s == null || s.length() != end - start) {
+            return false;
+        }
+        return MappedPDBReader.startsWith(buffer, start, s);
+    }
+
+    private static String toString(ByteBuffer buffer, int start, int end) {
+        char[] chars = new char[end - start];
+        for (int i = start; i < end; i++) {
+            chars[i - start] = (char) (buffer.get(i) & 0xff);
+        }
+        return new String(chars);
+    }
+
+    // the atom name, trimmed, reusing the common names where possible; null for a
+    // side-chain atom if only the backbone is wanted
+    private static String atomType(ByteBuffer buffer, int start, int end, boolean allAtoms) {
+        while (start < end && buffer.get(start) <= ' ') {
+            start++;
+        }
+        while (end > start && buffer.get(end - 1) <= ' ') {
+            end--;
+        }
+        int numberOfTypes = (allAtoms) ? KNOWN_ATOM_TYPES.length : NUMBER_OF_BACKBONE_TYPES;
+        for (int i = 0; i < numberOfTypes; i++) {
+            if (MappedPDBReader.matches(buffer, start, end, KNOWN_ATOM_TYPES[i])) {
+                return KNOWN_ATOM_TYPES[i];
+            }
+        }
+        return (allAtoms) ? MappedPDBReader.toString(buffer, start, end) : null;
+    }
+
+    private static int parseInt(ByteBuffer buffer, int start, int end) {
+        int value = 0;
+        boolean negative = false;
+        boolean seenDigit = false;
+        for (int i = start; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b >= '0' && b <= '9') {
+                value = (value * 10) + (b - '0');
+                seenDigit = true;
+            } else if (b == '-' && !seenDigit) {
+                negative = true;
+            } else if (b != ' ') {
+                throw new NumberFormatException("Bad residue number : " + MappedPDBReader.toString(buffer, start, end));
+            }
+        }
+        if (!seenDigit) {
+            throw new NumberFormatException("Missing residue number");
+        }
+        return (negative) ? -value : value;
+    }
+
+    // parses the fixed-point decimals of the coordinate columns; dividing the integer
+    // mantissa by an exact power of ten rounds the same way as Double.parseDouble
+    private static double parseDouble(ByteBuffer buffer, int start, int end) {
+        long mantissa = 0;
+        int decimals = 0;
+        boolean negative = false;
+        boolean seenPoint = false;
+        for (int i = start; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b >= '0' && b <= '9') {
+                mantissa = (mantissa * 10) + (b - '0');
+                if (seenPoint) {
+                    decimals++;
+                }
+            } else if (b == '.') {
+                seenPoint = true;
+            } else if (b == '-') {
+                negative = true;
+            } else if (b != ' ') {
+                // not a simple fixed-point number, so fall back on the slow path
+                return Double.parseDouble(MappedPDBReader.toString(buffer, start, end).trim());
+            }
+        }
+        if (decimals >= POWERS_OF_TEN.length) {
+            return Double.parseDouble(MappedPDBReader.toString(buffer, start, end).trim());
+        }
+        double value = mantissa / POWERS_OF_TEN[decimals];
+        return (negative) ? -value : value;
+    }
+
+    public static void main(String[] args) {
+        try {
+            Protein protein = MappedPDBReader.read(args[0]);
+            System.out.println(protein.toString());
+        } catch (IOException ioe) {
+            System.err.println(ioe);
+        }
+    }
+}
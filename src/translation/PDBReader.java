@@ -1,57 +1,99 @@
 package translation;
 
 import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
 
 import translation.model.Chain;
 import translation.model.Protein;
 import translation.model.Residue;
 
+/**
+ * Reads a structure file of any of the supported kinds. Only the backbone atoms are
+ * kept, unless allAtoms is passed as true.
+ */
 public class PDBReader {
 
     public static Protein read(String filename) throws IOException {
-        List<String> atomRecords;
+        return PDBReader.read(filename, false);
+    }
+
+    public static Protein read(String filename, boolean allAtoms) throws IOException {
+        if (MMCIFReader.isMMCIF(filename)) {
+            return MMCIFReader.read(filename, allAtoms);
+        } else if (CompressedPDBReader.isGzip(filename)) {
+            return CompressedPDBReader.read(filename, allAtoms);
+        } else {
+            return MappedPDBReader.read(filename, allAtoms);
+        }
+    }
+
+    public static String read(String filename, ChainListener listener) throws IOException {
+        return PDBReader.read(filename, listener, false);
+    }
+
+    public static String read(String filename, ChainListener listener, boolean allAtoms) throws IOException {
+        if (MMCIFReader.isMMCIF(filename)) {
+            return MMCIFReader.read(filename, listener, allAtoms);
+        } else if (CompressedPDBReader.isGzip(filename)) {
+            return CompressedPDBReader.read(filename, listener, allAtoms);
+        } else {
+            return MappedPDBReader.read(filename, listener, allAtoms);
+        }
+    }
+
+    // the original line-based reader, kept for input that can't be memory-mapped
+    public static Protein read(BufferedReader bufferer) throws IOException {
+        ChainCollector collector = new ChainCollector();
+        String pdbID = PDBReader.read(bufferer, collector, false);
+        return collector.toProtein(pdbID);
+    }
+
+    public static String read(BufferedReader bufferer, ChainListener listener) throws IOException {
+        return PDBReader.read(bufferer, listener, false);
+    }
+
+    public static String read(BufferedReader bufferer, ChainListener listener, boolean allAtoms) throws IOException {
         String pdbID = "Unknown";
+        Chain currentChain = null;
 
-        BufferedReader bufferer = new BufferedReader(new FileReader(filename));
         String line;
-        atomRecords = new ArrayList<String>();
         while ((line = bufferer.readLine()) != null) {
             if (line.length() > 4) {
                 String token = line.substring(0, 4);
                 if (token.equals("ATOM")) {
-                    atomRecords.add(line);
+                    Chain newChain = PDBReader.parseRecord(line, currentChain, allAtoms);
+
+                    // a new chain means that the last one is finished
+                    if (!newChain.equals(currentChain)) {
+                        if (currentChain != null) {
+                            listener.chainRead(currentChain);
+                        }
+                        currentChain = newChain;
+                    }
                 } else if (token.equals("HEAD")) {
                     pdbID = line.substring(line.length() - 4, line.length());
                 }
             }
         }
-        bufferer.close();
-
-        Protein protein = new Protein(pdbID);
 
-        Chain currentChain = null;
-
-        for (String atomRecord : atomRecords) {
-            Chain newChain = PDBReader.parseRecord(atomRecord, currentChain);
-            if (!newChain.equals(currentChain)) {
-                protein.addChain(newChain);
-                currentChain = newChain;
-            }
+        if (currentChain != null) {
+            listener.chainRead(currentChain);
         }
 
-        return protein;
+        return pdbID;
     }
 
     public static Chain parseRecord(String atomRecord, Chain chain) {
+        return PDBReader.parseRecord(atomRecord, chain, true);
+    }
+
+    public static Chain parseRecord(String atomRecord, Chain chain, boolean allAtoms) {
 //        String atomNumber = atomRecord.substring(4, 11).trim();
         String atomType = atomRecord.substring(11, 16).trim();
         String residueType = atomRecord.substring(17, 20);
         String chainLabel = atomRecord.substring(20, 22);
         String residueNumber = atomRecord.substring(22, 26).trim();
+        char insertionCode = atomRecord.charAt(26);
         String coordinates = atomRecord.substring(27, 54).trim();
 
         if (chain == null || (!chainLabel.equals(chain.getLabel()))) {
@@ -60,13 +102,16 @@ public class PDBReader {
 
         Residue r;
         int pdbNumber = Integer.parseInt(residueNumber);
-        if (chain.hasResidueByPDBNumbering(pdbNumber)) {
-            r = chain.getResidueByPDBNumbering(pdbNumber);
+        if (chain.hasResidueByPDBNumbering(pdbNumber, insertionCode)) {
+            r = chain.getResidueByPDBNumbering(pdbNumber, insertionCode);
         } else {
-            r = chain.createResidue(pdbNumber, residueType);
+            r = chain.createResidue(pdbNumber, insertionCode, residueType);
         }
 
-        r.setAtom(atomType, coordinates);
+        // the residue is made even if none of its atoms are kept, to keep the numbering
+        if (allAtoms || Residue.isBackboneAtom(atomType)) {
+            r.setAtom(atomType, coordinates);
+        }
 
         return chain;
     }
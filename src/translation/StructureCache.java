@@ -0,0 +1,273 @@
+package translation;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.zip.CRC32;
+
+import javax.vecmath.Point3d;
+
+import translation.model.Chain;
+import translation.model.Protein;
+import translation.model.Residue;
+
+/**
+ * A directory of pre-parsed structures, in a compact binary form, so that repeated runs
+ * over the same structures don't have to parse text files each time.
+ *
+ * For each chain, the cache holds the residue numbering (with insertion codes), the
+ * residue types, and the backbone coordinates (N, CA, C, O, and H when present). Each
+ * entry is keyed by the path of the structure file, and is only used while the file has
+ * the same length and modification time as when it was stored; otherwise, the file is
+ * parsed again and the entry is rewritten. A hash of the contents is stored too, but it
+ * is only checked if verifyContents is set, as that means reading the whole file again.
+ * Entries are read through a memory map, with no text parsing at all.
+ *
+ * Reading from the cache streams : each chain is passed to the listener as soon as it
+ * has been decoded. On a miss, though, the whole file is parsed and stored before any
+ * chain is passed on, so that what is stored is what was read, before any analysis.
+ *
+ * Note that side-chain atoms are not cached, so structures read from the cache only
+ * have their backbone atoms.
+ */
+public class StructureCache {
+
+    private static final int MAGIC = 0x54534331;     // "TSC1"
+
+    private static final int VERSION = 3;
+
+    private static final String SUFFIX = ".tsc";
+
+    private static final String[] BACKBONE_ATOMS = { "N", "CA", "C", "O", "H" };
+
+    private File directory;
+
+    private boolean verifyContents;
+
+    public StructureCache(String directoryName) throws IOException {
+        this(directoryName, false);
+    }
+
+    /**
+     * @param verifyContents if true, also check a hash of the contents of a structure file
+     * before using its entry, and not just its length and modification time
+     */
+    public StructureCache(String directoryName, boolean verifyContents) throws IOException {
+        this.verifyContents = verifyContents;
+        this.directory = new File(directoryName);
+        if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+            throw new IOException("Cannot make cache directory " + directoryName);
+        }
+    }
+
+    public Protein read(String filename) throws IOException {
+        ChainCollector collector = new ChainCollector();
+        String pdbID = this.read(filename, collector);
+        return collector.toProtein(pdbID);
+    }
+
+    /**
+     * Read the structure, from the cache if possible, passing each chain to the listener.
+     *
+     * @return the PDB ID
+     */
+    public String read(String filename, ChainListener listener) throws IOException {
+        File file = new File(filename);
+        String path = file.getAbsolutePath();
+        File cacheFile = this.cacheFileFor(path);
+
+        if (cacheFile.exists()) {
+            String pdbID = this.load(cacheFile, path, file, listener);
+            if (pdbID != null) {
+                return pdbID;
+            }
+        }
+
+        // a miss, or a stale entry : parse the file, and store the result
+        long fileSize = file.length();
+        long lastModified = file.lastModified();
+        Protein protein = PDBReader.read(filename);
+        this.store(protein, cacheFile, path, fileSize, lastModified, StructureCache.hashContents(file));
+        Iterator<Chain> chains = protein.chainIterator();
+        while (chains.hasNext()) {
+            listener.chainRead(chains.next());
+        }
+        return protein.getID();
+    }
+
+    // the name is from the path, so that each structure file has just one entry
+    private File cacheFileFor(String path) {
+        CRC32 crc = new CRC32();
+        byte[] pathBytes = StructureCache.toBytes(path);
+        crc.update(pathBytes, 0, pathBytes.length);
+        String name = new File(path).getName() + "." + Long.toHexString(crc.getValue()) + SUFFIX;
+        return new File(this.directory, name);
+    }
+
+    private static long hashContents(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            CRC32 crc = new CRC32();
+            ByteBuffer buffer = ByteBuffer.allocate(1024 * 1024);
+            int read;
+            while ((read = channel.read(buffer)) != -1) {
+                crc.update(buffer.array(), 0, read);
+                buffer.clear();
+            }
+            return crc.getValue();
+        } finally {
+            in.close();
+        }
+    }
+
+    // passes each chain to the listener, and returns the PDB ID; or returns null, having
+    // passed on nothing, if the entry is not for this version of the file
+    private String load(File cacheFile, String path, File file, ChainListener listener) throws IOException {
+        FileInputStream in = new FileInputStream(cacheFile);
+        try {
+            FileChannel channel = in.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < 32 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return null;
+            }
+            if (buffer.getLong() != file.length() || buffer.getLong() != file.lastModified()) {
+                return null;
+            }
+            long contentHash = buffer.getLong();
+            if (!StructureCache.readString(buffer).equals(path)) {
+                return null;
+            }
+            if (this.verifyContents && contentHash != StructureCache.hashContents(file)) {
+                return null;
+            }
+
+            String pdbID = StructureCache.readString(buffer);
+            int numberOfChains = buffer.getInt();
+            for (int i = 0; i < numberOfChains; i++) {
+                Chain chain = new Chain(StructureCache.readString(buffer));
+                int numberOfResidues = buffer.getInt();
+                for (int j = 0; j < numberOfResidues; j++) {
+                    int pdbNumber = buffer.getInt();
+                    char insertionCode = (char) (buffer.get() & 0xff);
+                    String type = StructureCache.readString(buffer);
+                    Residue residue = chain.createResidue(pdbNumber, insertionCode, type);
+                    int atomMask = buffer.get();
+                    for (int k = 0; k < BACKBONE_ATOMS.length; k++) {
+                        if ((atomMask & (1 << k)) != 0) {
+                            double x = buffer.getDouble();
+                            double y = buffer.getDouble();
+                            double z = buffer.getDouble();
+                            residue.setAtom(BACKBONE_ATOMS[k], new Point3d(x, y, z));
+                        }
+                    }
+                }
+                listener.chainRead(chain);
+            }
+            return pdbID;
+        } finally {
+            in.close();
+        }
+    }
+
+    private void store(Protein protein, File cacheFile, String path, long fileSize, long lastModified, long contentHash) throws IOException {
+        // write to a temporary file first, so that a half-written entry is never read
+        File temporary = new File(cacheFile.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary), 64 * 1024));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(fileSize);
+            out.writeLong(lastModified);
+            out.writeLong(contentHash);
+            StructureCache.writeString(out, path);
+            StructureCache.writeString(out, protein.getID());
+
+            int numberOfChains = 0;
+            Iterator<Chain> chains = protein.chainIterator();
+            while (chains.hasNext()) {
+                chains.next();
+                numberOfChains++;
+            }
+            out.writeInt(numberOfChains);
+
+            chains = protein.chainIterator();
+            while (chains.hasNext()) {
+                Chain chain = chains.next();
+                StructureCache.writeString(out, chain.getLabel());
+                out.writeInt(chain.length());
+                Iterator<Residue> residues = chain.residueIterator();
+                while (residues.hasNext()) {
+                    Residue residue = residues.next();
+                    out.writeInt(residue.getPDBNumber());
+                    out.writeByte(residue.getInsertionCode());
+                    StructureCache.writeString(out, residue.getType());
+
+                    int atomMask = 0;
+                    for (int k = 0; k < BACKBONE_ATOMS.length; k++) {
+                        if (residue.getCoordinates(BACKBONE_ATOMS[k]) != null) {
+                            atomMask |= 1 << k;
+                        }
+                    }
+                    out.writeByte(atomMask);
+                    for (int k = 0; k < BACKBONE_ATOMS.length; k++) {
+                        Point3d point = residue.getCoordinates(BACKBONE_ATOMS[k]);
+                        if (point != null) {
+                            out.writeDouble(point.x);
+                            out.writeDouble(point.y);
+                            out.writeDouble(point.z);
+                        }
+                    }
+                }
+            }
+        } finally {
+            out.close();
+        }
+
+        if (!temporary.renameTo(cacheFile)) {
+            cacheFile.delete();
+            if (!temporary.renameTo(cacheFile)) {
+                throw new IOException("Cannot write cache entry " + cacheFile);
+            }
+        }
+    }
+
+    private static byte[] toBytes(String s) {
+        byte[] bytes = new byte[s.length()];
+        for (int i = 0; i < s.length(); i++) {
+            bytes[i] = (byte) s.charAt(i);
+        }
+        return bytes;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        out.writeShort(s.length());
+        out.write(StructureCache.toBytes(s));
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xffff;
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) (buffer.get() & 0xff);
+        }
+        return new String(chars);
+    }
+
+    public static void main(String[] args) {
+        try {
+            StructureCache cache = new StructureCache(args[1]);
+            Protein protein = cache.read(args[0]);
+            System.out.println(protein.toString());
+        } catch (IOException ioe) {
+            System.err.println(ioe);
+        }
+    }
+}
@@ -7,13 +7,16 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 import javax.vecmath.Point3d;
 import javax.vecmath.Vector3d;
 
+import translation.model.BackboneCoordinates;
 import translation.model.BackboneSegment;
 import translation.model.Chain;
 import translation.model.HBond;
+import translation.model.HBondTable;
 import translation.model.Helix;
 import translation.model.Protein;
 import translation.model.Residue;
@@ -25,8 +28,21 @@ import translation.model.UnstructuredSegment;
 public class StructureFinder {
     private Protein protein;
 
+    private HBondDetector hbondDetector;
+
+    // for working out the torsions of long chains, if set
+    private ForkJoinPool pool;
+
     public StructureFinder(String filename) throws IOException {
         this.protein = PDBReader.read(filename);
+        this.hbondDetector = StructureFinder.createDefaultHBondDetector();
+    }
+
+    // the thresholds used here have always been fixed, unlike those of the HBondAnalyser
+    private static HBondDetector createDefaultHBondDetector() {
+        GridHBondDetector detector = new GridHBondDetector(3.5, 120.0, 90.0);
+        detector.setStandardFirstOnly(true);
+        return detector;
     }
 
     public Protein getProtein() {
@@ -37,7 +53,7 @@ public class StructureFinder {
     // The 'interface' to the function of this class
     // I suppose that rigorously, this should be the only public method...
     public void findStructure(Chain chain) {
-        chain.calculateTorsions();
+        chain.calculateTorsions(this.pool);
         this.calculateHBondPartners(chain);
         //this.assignTorsionsAndHBondsToTypes(chain);
         //this.convertTorsionsToRepetitiveStructure(chain);
@@ -332,127 +348,24 @@ public class StructureFinder {
         }
     }
 
+    // sheets are not built here; this only works out the axis of every strand, which the
+    // pairwise distance check used to do, and which later steps and the segment output expect
     public void findSheets(Chain chain) {
-        //for each strand, examine all strands in front (so we don't do the same comparison twice)
-        //each examination is a simple centroid-centroid distance
-        ListIterator<BackboneSegment> firstSegments = chain.backboneSegmentListIterator();
-    
-        while (firstSegments.hasNext()) {
-            // get the first segment, reject if not a strand
-            BackboneSegment firstSegment = (BackboneSegment) firstSegments.next();
-            if (!(firstSegment instanceof Strand)) {
-                continue;
-            }
-           
-            // get the segments after the current one
-            ListIterator<BackboneSegment> secondSegments = chain.backboneSegmentListIterator(firstSegment);
-            while (secondSegments.hasNext()) {
-                BackboneSegment secondSegment = (BackboneSegment) secondSegments.next();
-                if ((secondSegment != firstSegment) && (secondSegment instanceof Strand)) {
-                    //make a crude distance check
-                    if (this.closeApproach(firstSegment, secondSegment)) {
-                        //if this passes, make a finer bonding check
-                        if (this.bonded(firstSegment, secondSegment)) {
-                            //this.addStrandPair(firstSegment, secondSegment, chain);
-                        }
-                    }
-                }
-            }
-        }
-    }
-
-    /*
-    public void addStrandPair(BackboneSegment first, BackboneSegment second, Chain chain) {
-        Sheet firstSheet = chain.getSheetContaining(first);
-        Sheet secondSheet = chain.getSheetContaining(second);
-        
-        if (firstSheet == null && secondSheet == null) {
-            chain.createSheet(first, second);
-            //System.out.println("Adding " + first + " and " + second + " to new sheet");
-        } else {
-            if (firstSheet == null) {
-                //System.out.println("Adding " + first + " and " + second + " to " + secondSheet);
-                secondSheet.insert(second, first);
-            } else if (secondSheet == null) {
-                //System.out.println("Adding " + first + " and " + second + " to " + firstSheet);
-                firstSheet.insert(first, second);
-            } else {
-                // one possibility is that both sheets are the same, and this edge closes a barrel
-                if (firstSheet == secondSheet) {
-                    firstSheet.closeBarrel(first, second);
-                } else {
-                    // otherwise, we have to join the sheets
-                    this.joinSheets(first, second, firstSheet, secondSheet, chain);
-                }
-            }
-        }
-    }
-
-    public void joinSheets(BackboneSegment first, BackboneSegment second, Sheet firstSheet, Sheet secondSheet, Chain chain) {
-        // check that the strands are not somehow in the middle of the sheet (bifurcated sheets)
-        if (firstSheet.strandInMiddle(first) || secondSheet.strandInMiddle(second)) {
-            System.err.println("bifurcation in : Sheet (" + firstSheet + ") and Strand (" + first + ") or Sheet (" + secondSheet + ") and Strand (" + second + " )");
-            return;
-        }
-
-        int indexOfFirst = firstSheet.indexOf(first);
-        int indexOfSecond = secondSheet.indexOf(second);
-
-        if (indexOfSecond == 0) {
-            if (indexOfFirst == 0) {
-                //System.out.println("Reversing : " + firstSheet + " and adding : " + secondSheet + " onto the end");
-                firstSheet.reverse();
-                firstSheet.extend(secondSheet);
-            } else {
-                //System.out.println("Adding : " + secondSheet + " onto the end of " + firstSheet);
-                firstSheet.extend(secondSheet);
-            }
-            chain.removeSheet(secondSheet);
-        } else {
-            if (indexOfFirst == 0) {
-                //System.out.println("Adding : " + firstSheet + " onto the end of " + secondSheet);
-                secondSheet.extend(firstSheet);
-                chain.removeSheet(firstSheet);
-            } else {
-                //System.out.println("Reversing : " + secondSheet + " and adding it onto the end of " + firstSheet);
-                secondSheet.reverse();
-                firstSheet.extend(secondSheet);
-                chain.removeSheet(secondSheet);
+        List<BackboneSegment> strands = new ArrayList<BackboneSegment>();
+        Iterator<BackboneSegment> segments = chain.backboneSegmentListIterator();
+        while (segments.hasNext()) {
+            BackboneSegment segment = segments.next();
+            if (segment instanceof Strand) {
+                strands.add(segment);
             }
         }
-    }
-    */
-
-    public boolean closeApproach(BackboneSegment a, BackboneSegment b) {
-        Vector3d distanceVector = new Vector3d();
-        distanceVector.sub(a.getAxis().getCentroid(), b.getAxis().getCentroid());
-        double length = distanceVector.length();
-        //System.out.println("Distance between " + a + " and " + b + " = " + Math.rint(length));
-        return length < 10.0;
-    }
-
-    public boolean bonded(BackboneSegment strand, BackboneSegment otherStrand) {
-        //basically, run through the residues, checking the list of hbonds to find residues that might be in the other strand
-        int numberOfHBonds = 0;
-        Iterator<Residue> strandResidues = strand.residueIterator();
-        while (strandResidues.hasNext()) {
-            Residue nextResidue = strandResidues.next();
-            if (otherStrand.bondedTo(nextResidue)) {
-                numberOfHBonds++;
+        if (strands.size() > 1) {
+            for (BackboneSegment strand : strands) {
+                strand.getAxis();
             }
         }
-
-        //all we want to know is, are there enough hbonds for these strands to qualify as bonded
-        //WARNING! this is number of RESIDUES not number of HBONDS
-        if (numberOfHBonds > 1) { //?is two enough?
-            return true;
-        } else {
-            //System.out.println(strand + " not bonded to " + otherStrand);
-            return false;
-        }
     }
 
-
     //merge RepetitiveStructure separated by only a single unstructured residue
     //also, delete single-residue RepetitiveStructure surrounded by UnstructuredRegions
     public void cleanStructure(Chain chain) {
@@ -574,104 +487,42 @@ public class StructureFinder {
     }
 
     public void calculateHBondPartners(Chain c) {
+        this.hbondDetector.findHBonds(c);
+
+        // use the bonds to analyse the bonding environment of each residue that could start a pair
+        BackboneCoordinates backbone = c.getBackboneCoordinates();
+        HBondTable table = c.getHBondTable();
         Iterator<Residue> itr = c.residueIterator();
         while (itr.hasNext()) {
             Residue first = (Residue) itr.next();
-            this.searchForwards(first, c);
-        }
-    }
+            int position = first.getAbsoluteNumber();
 
-    public void searchForwards(Residue first, Chain c) {
-
-        // check that it makes sense to be doing this
-        if (!first.isStandardAminoAcid()) {
-            return;
-        }
-
-        int position = first.getAbsoluteNumber();
-        int nextPosition = position + 1;
-        Point3d firstN = first.getCoordinates("N");
-        Point3d firstH = first.getCoordinates("H");
-        Point3d firstO = first.getCoordinates("O");
-        Point3d firstC = first.getCoordinates("C");
-
-        // FIXME : unfortunately, this misses out on PRO residues (also below)
-        if (firstN == null || firstH == null || firstO == null || firstC == null) {
-            return;
-        }
-
-        // allow for chain breaks, or return if we have reached the end
-        if (!c.hasResidueByAbsoluteNumbering(nextPosition)) {
-            Residue second = c.getNextResidue(position);
-            if (second == null) {   //probably reached the end of the chain!
-                return ;
-            }
-            nextPosition = second.getAbsoluteNumber();
-        }
-
-        // now, compare the first residue to the residues further on in the chain
-        Iterator<Residue> itr = c.residueIterator(nextPosition);
-        while (itr.hasNext()) {
-            int secondPosition = ((Residue) itr.next()).getAbsoluteNumber();
-            if (secondPosition < (position + 3)) {
+            // FIXME : unfortunately, this misses out on PRO residues
+            if (!first.isStandardAminoAcid() || !backbone.hasHBondAtoms(position)) {
                 continue;
             }
 
-            Residue second;
-            try {
-                second = c.getResidueByAbsoluteNumbering(secondPosition);
-                if (!second.isStandardAminoAcid()) {
-                    continue;
-                }
-            } catch (IndexOutOfBoundsException i) {
+            // stop at the end of the chain
+            if (c.getNextResidue(position) == null) {
                 break;
             }
+            this.analyzeHBonds(table, first);
+        }
+    }
 
-            try {
-                Point3d secondN = second.getCoordinates("N");
-                Point3d secondH = second.getCoordinates("H");
-                Point3d secondO = second.getCoordinates("O");
-                Point3d secondC = second.getCoordinates("C");
-
-                // FIXME : PRO residues...
-                if (secondN == null || secondH == null || secondO == null || secondC == null) {
-                    continue;
-                }
-
-                // bonds from first N-H to second C=O
-                HBond firstSecondBond = this.createBond(first, second, firstN, firstH, secondO, secondC);
-                if (firstSecondBond != null) {
-                    c.addHBond(firstSecondBond);
-                    first.addHBond(firstSecondBond);
-                    second.addHBond(firstSecondBond);
-                }
+    public HBondDetector getHBondDetector() {
+        return this.hbondDetector;
+    }
 
-                // bonds from second N-H to first C=O
-                HBond secondFirstBond = this.createBond(second, first, secondN, secondH, firstO, firstC);
-                if (secondFirstBond != null) {
-                    c.addHBond(secondFirstBond);
-                    first.addHBond(secondFirstBond);
-                    second.addHBond(secondFirstBond);
-                }
-            } catch (NullPointerException npe) {
-                System.err.println(npe + " for " + first + " and " + second);
-                continue;
-            }
-        }
-        // finally, as an optimisation measure, use this loop over the residues to analyse the bonding environment
-        this.analyzeHBonds(first);
+    public void setHBondDetector(HBondDetector hbondDetector) {
+        this.hbondDetector = hbondDetector;
     }
 
-    public HBond createBond(Residue donor, Residue acceptor, Point3d nitrogen, Point3d hydrogen, Point3d oxygen, Point3d carbon) {
-        double distance = hydrogen.distance(oxygen);
-        double nhoAngle = Geometer.angle(nitrogen, hydrogen, oxygen);
-        double hocAngle = Geometer.angle(hydrogen, oxygen, carbon);
-        
-        if (distance < 3.5 && nhoAngle > 120.0 && hocAngle > 90.0) {
-            return new HBond(donor, acceptor, distance, nhoAngle, hocAngle);
-        } else {
-            return null;
-        }
+    /**
+     * @param pool the pool to split the torsions of long chains over, or null to work them out on the calling thread
+     */
+    public void setForkJoinPool(ForkJoinPool pool) {
+        this.pool = pool;
     }
 
     public void analyzeHBonds(Residue residue) {
@@ -711,6 +562,41 @@ public class StructureFinder {
         }
     }
 
+    /**
+     * As analyzeHBonds(Residue), but for a residue of the chain that the table is for,
+     * reading its bonds straight from the table's index, without making any HBonds.
+     */
+    public void analyzeHBonds(HBondTable table, Residue residue) {
+        int position = residue.getAbsoluteNumber();
+        int donorStart = table.donorStart(position);
+        int acceptorStart = table.acceptorStart(position);
+        int numberOfNTerminalHBonds = table.donorEnd(position) - donorStart;
+        int numberOfCTerminalHBonds = table.acceptorEnd(position) - acceptorStart;
+
+        if (numberOfNTerminalHBonds == 0 && numberOfCTerminalHBonds == 0) {
+            residue.setEnvironment("Loop");
+        } else if (numberOfNTerminalHBonds == 1 && numberOfCTerminalHBonds == 0) {
+            if (table.getResidueSeparation(table.donorBond(donorStart)) == 4) {
+                residue.setEnvironment("End of a Helix");
+            }
+        } else if (numberOfNTerminalHBonds == 1 && numberOfCTerminalHBonds == 1) {
+            int n = table.getResidueSeparation(table.donorBond(donorStart));
+            int c = table.getResidueSeparation(table.acceptorBond(acceptorStart));
+
+            if (n == 4 && c == 4) {
+                residue.setEnvironment("Middle of a Helix");
+            } else if (Math.abs(n - c) == 2) {
+                residue.setEnvironment("Parallel Strand");
+            } else if (n - c == 0) {
+                residue.setEnvironment("AntiParallel Strand");
+            } else if (n == 4) {
+                residue.setEnvironment("End of a Helix");
+            } else if (c == 4) {
+                residue.setEnvironment("Start of a Helix");
+            }
+        }
+    }
+
     public void buildSSES(Chain chain) {
         chain.addBackboneSegment(new Terminus("N Terminus", 'N'));
         this.buildHelices(chain);
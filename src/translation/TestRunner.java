@@ -11,9 +11,9 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import tops.engine.Result;
+import tops.engine.TopsStringFormatException;
 import tops.engine.drg.Explorer;
 import translation.model.Chain;
-import translation.model.Protein;
 
 /*
 Intended solely for testing the translation code by running on a directory
@@ -27,6 +27,16 @@ public class TestRunner {
         String cathfileName  = args[2];
         String loggingLevel  = args[3];
 
+        // an optional directory of pre-parsed structures, for repeated runs
+        StructureCache structureCache = null;
+        if (args.length > 4) {
+            try {
+                structureCache = new StructureCache(args[4]);
+            } catch (IOException ioe) {
+                System.err.println(ioe.toString());
+            }
+        }
+
         Logger.getLogger("translation.FoldAnalyser").setLevel(Level.parse(loggingLevel));
 
         // get the filenames from the pdb file directory
@@ -34,10 +44,10 @@ public class TestRunner {
         String[] fileList = structureDirectory.list();
 
         // get the strings from the string file
-        Map<String, Map<String, Map<String, String>>> idchaindomainMap = 
+        final Map<String, Map<String, Map<String, String>>> idchaindomainMap = 
         		new HashMap<String, Map<String, Map<String, String>>>();
         BufferedReader bufferer = null;
-        Map<String, ChainDomainMap> cathPDBIDChainDomainMap = null;
+        DomainTable cathDomainTable = null;
 
         try {
             bufferer = new BufferedReader(new FileReader(strfileName));
@@ -73,7 +83,7 @@ public class TestRunner {
             }
 
             // get the cath domain definitions
-            cathPDBIDChainDomainMap = CATHDomainFileParser.parseWholeFile(cathfileName);
+            cathDomainTable = DomainTable.read(cathfileName);
 
         } catch (IOException ioe) {
             System.err.println(ioe.toString());
@@ -89,61 +99,42 @@ public class TestRunner {
 
 
         // translate and match
-        FoldAnalyser foldAnalyser = new FoldAnalyser();
-        Explorer explorer = new Explorer();
+        final FoldAnalyser foldAnalyser = new FoldAnalyser();
+        final Explorer explorer = new Explorer();
+        final DomainTable cathTable = cathDomainTable;
 
         for (int i = 0; i < fileList.length; i++) {
 
             try {
-                // from the name of the file, get the id 
                 String filename = directoryName + "/" + fileList[i];
-                String pdbid = fileList[i].substring(0, 4);
+
+                // a bundle holds many structures, each of which is compared in turn
+                if (CompressedPDBReader.isBundle(fileList[i])) {
+                    CompressedPDBReader.readBundle(filename, new CompressedPDBReader.EntryHandler() {
+                        public ChainListener entryStarted(String entryName) {
+                            String pdbid = TestRunner.pdbIDFromFilename(entryName);
+                            return TestRunner.comparingListener(pdbid, idchaindomainMap.get(pdbid), cathTable.getChainDomainMap(pdbid), foldAnalyser, explorer);
+                        }
+
+                        public void entryFinished(String entryName, String pdbID) {
+                        }
+                    });
+                    continue;
+                }
+
+                // from the name of the file, get the id 
+                String pdbid = TestRunner.pdbIDFromFilename(fileList[i]);
 
                 // use this id to get the chainmaps for this id
                 Map<String, Map<String, String>> chainMap = idchaindomainMap.get(pdbid);
-                ChainDomainMap cathChainMap = cathPDBIDChainDomainMap.get(pdbid);
-
-                // translate the pdbfile
-                Protein protein = foldAnalyser.analyse(PDBReader.read(filename));
-                Map<String, Map<String, String>> chainDomainStringMap = 
-                		protein.toTopsDomainStrings(cathChainMap);
-
-                Iterator<Chain> itr = protein.chainIterator();
-
-                while (itr.hasNext()) {
-                    Chain chain = (Chain) itr.next();
-
-                    // ignore DNA chains
-                    if (chain.isDNA()) {
-                        System.err.println(pdbid + chain.getLabel() + " is DNA");
-                        continue;
-                    } 
-
-                    // otherwise, get tops domain strings, and compare
-                    String chainID = chain.getCathCompatibleLabel();
-                    Map<String, String> domainStringMap = chainDomainStringMap.get(chainID);
-
-                    // find the chain that has been translated in the map of dssptops strings
-                    if (chainMap != null && chainMap.containsKey(chainID)) {
-                        Map<String, String> domainBodyMap = chainMap.get(chainID);
-                        Iterator<String> itr2 = domainBodyMap.keySet().iterator();
-
-                        // go through the domains in the dssptops strings, getting corresponding translated versions
-                        while (itr2.hasNext()) {
-                            String domainID = (String) itr2.next();
-                            String dsspTopsDomain = pdbid + chainID + domainID + (String) domainBodyMap.get(domainID);
-                            if (domainStringMap.containsKey(domainID)) {
-                                String myTopsDomain = pdbid + chainID + (String) domainStringMap.get(domainID);
-                                Result result = explorer.comparePair(dsspTopsDomain, myTopsDomain);
-                                System.out.println(result + " for " + dsspTopsDomain + " <=> " + myTopsDomain);
-                            } else {
-                                System.err.println("Domain " + domainID + " not found for pdbid " + pdbid);
-                            }
-                        }
-                    // if this chain isn't in the map, complain
-                    } else {
-                        System.err.println("Chain " + chain.getCathCompatibleLabel() + " not found for pdbid " + pdbid);
-                    }
+                ChainDomainMap cathChainMap = cathTable.getChainDomainMap(pdbid);
+
+                // translate the pdbfile, comparing each chain as soon as it has been read
+                ChainListener listener = TestRunner.comparingListener(pdbid, chainMap, cathChainMap, foldAnalyser, explorer);
+                if (structureCache != null) {
+                    structureCache.read(filename, listener);
+                } else {
+                    PDBReader.read(filename, listener);
                 }
             } catch (Exception ex) {
                 ex.printStackTrace();
@@ -152,4 +143,65 @@ public class TestRunner {
         }
     }
 
+    // either '1abc.pdb' or, in a pdb mirror, 'pdb1abc.ent.gz', possibly inside a directory
+    public static String pdbIDFromFilename(String filename) {
+        String name = new File(filename).getName();
+        if (name.startsWith("pdb") && name.indexOf(".ent") == 7) {
+            return name.substring(3, 7);
+        } else {
+            return name.substring(0, 4);
+        }
+    }
+
+    public static ChainListener comparingListener(final String pdbid, 
+                                                  final Map<String, Map<String, String>> chainMap, 
+                                                  final ChainDomainMap cathChainMap, 
+                                                  final FoldAnalyser foldAnalyser, 
+                                                  final Explorer explorer) {
+        return new ChainListener() {
+            public void chainRead(Chain chain) {
+                foldAnalyser.analyse(chain);
+                TestRunner.compareChain(pdbid, chain, chainMap, cathChainMap, explorer);
+            }
+        };
+    }
+
+    public static void compareChain(String pdbid, Chain chain, Map<String, Map<String, String>> chainMap, ChainDomainMap cathChainMap, Explorer explorer) {
+        // ignore DNA chains
+        if (chain.isDNA()) {
+            System.err.println(pdbid + chain.getLabel() + " is DNA");
+            return;
+        } 
+
+        // otherwise, get tops domain strings, and compare
+        String chainID = chain.getCathCompatibleLabel();
+        Map<String, String> domainStringMap = chain.toTopsDomainStrings(cathChainMap);
+
+        // find the chain that has been translated in the map of dssptops strings
+        if (chainMap != null && chainMap.containsKey(chainID)) {
+            Map<String, String> domainBodyMap = chainMap.get(chainID);
+            Iterator<String> itr2 = domainBodyMap.keySet().iterator();
+
+            // go through the domains in the dssptops strings, getting corresponding translated versions
+            while (itr2.hasNext()) {
+                String domainID = (String) itr2.next();
+                String dsspTopsDomain = pdbid + chainID + domainID + (String) domainBodyMap.get(domainID);
+                if (domainStringMap.containsKey(domainID)) {
+                    String myTopsDomain = pdbid + chainID + (String) domainStringMap.get(domainID);
+                    try {
+                        Result result = explorer.comparePair(dsspTopsDomain, myTopsDomain);
+                        System.out.println(result + " for " + dsspTopsDomain + " <=> " + myTopsDomain);
+                    } catch (TopsStringFormatException tsfe) {
+                        System.err.println(tsfe.toString());
+                    }
+                } else {
+                    System.err.println("Domain " + domainID + " not found for pdbid " + pdbid);
+                }
+            }
+        // if this chain isn't in the map, complain
+        } else {
+            System.err.println("Chain " + chain.getCathCompatibleLabel() + " not found for pdbid " + pdbid);
+        }
+    }
+
 }
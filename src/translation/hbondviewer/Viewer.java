@@ -31,6 +31,9 @@ public class Viewer extends JFrame {
 
 	private HBondAnalyser hBondAnalyser;
 
+    // the file being viewed, if any, so that it can be analysed again with new properties
+    private String filename;
+
 //    private DropTarget dropTarget;
 
     private List<HBondViewPanel> views;
@@ -50,6 +53,9 @@ public class Viewer extends JFrame {
         this.hBondAnalyser = new HBondAnalyser();
         this.hBondAnalyser.setDefaultProperties();
 
+        // keep the candidate bonds, so that changing the thresholds does not redo the geometry
+        this.hBondAnalyser.setProperty("CACHE_HBOND_CANDIDATES", "TRUE");
+
         this.viewWidth = Viewer.DEFAULT_WIDTH;
         this.viewHeight = Viewer.DEFAULT_HEIGHT;
 
@@ -92,6 +98,11 @@ public class Viewer extends JFrame {
     public void loadPropertiesFromFile(String propertyFilename) {
         try {
             this.hBondAnalyser.loadProperties(new FileInputStream(propertyFilename));
+
+            // show the file again with the new properties
+            if (this.filename != null) {
+                this.viewFile(this.filename);
+            }
         } catch (IOException ioe) {
             System.err.println(ioe);
         }
@@ -102,6 +113,7 @@ public class Viewer extends JFrame {
     }
 
     public void viewFile(String filename) throws IOException {
+        this.filename = filename;
         Protein protein = PDBReader.read(filename);
         this.hBondAnalyser.analyse(protein);
 
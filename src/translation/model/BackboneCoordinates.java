@@ -0,0 +1,221 @@
+package translation.model;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import javax.vecmath.Point3d;
+
+import translation.Geometer;
+
+/**
+ * The backbone atoms of a chain, held as one primitive array per atom type and axis,
+ * indexed by the absolute number of the residue. This lets the inner loops of the
+ * analysis work on doubles, rather than looking up a Point3d in each residue's map.
+ *
+ * The residues themselves still hold the atoms; this is a copy, made by the chain
+ * when it is first asked for, and thrown away when an atom is changed. The exception
+ * is amide hydrogens calculated by the chain, which are only placed here.
+ */
+public class BackboneCoordinates {
+
+    // the atom types, in the same order as Residue.BACKBONE_ATOM_TYPES
+    public static final int N  = 0;
+    public static final int CA = 1;
+    public static final int C  = 2;
+    public static final int O  = 3;
+    public static final int H  = 4;
+
+    private static final int NUMBER_OF_ATOM_TYPES = 5;
+
+    // the number of residues that have their hydrogens placed without splitting further
+    private static final int BLOCK_SIZE = 1024;
+
+    private int length;
+
+    private double[][] x;
+
+    private double[][] y;
+
+    private double[][] z;
+
+    private boolean[][] present;
+
+    public BackboneCoordinates(List<Residue> residues) {
+        this(residues, false);
+    }
+
+    // with atomsOnly, just the atoms held by the residues, leaving out any hydrogens calculated by their chain
+    BackboneCoordinates(List<Residue> residues, boolean atomsOnly) {
+        this.length = residues.size();
+        this.x = new double[NUMBER_OF_ATOM_TYPES][this.length];
+        this.y = new double[NUMBER_OF_ATOM_TYPES][this.length];
+        this.z = new double[NUMBER_OF_ATOM_TYPES][this.length];
+        this.present = new boolean[NUMBER_OF_ATOM_TYPES][this.length];
+
+        for (int i = 0; i < this.length; i++) {
+            Residue residue = residues.get(i);
+            for (int atom = 0; atom < NUMBER_OF_ATOM_TYPES; atom++) {
+                String atomType = Residue.BACKBONE_ATOM_TYPES[atom];
+                Point3d point = atomsOnly ? residue.getAtom(atomType) : residue.getCoordinates(atomType);
+                if (point != null) {
+                    this.x[atom][i] = point.x;
+                    this.y[atom][i] = point.y;
+                    this.z[atom][i] = point.z;
+                    this.present[atom][i] = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Places the amide H of each residue after the first, apart from prolines, 1A from
+     * its N along the C=O bond of the residue before. This is the same sum, on the same
+     * doubles, as placing them one Point3d at a time; residues missing any of the atoms
+     * keep whatever H they had. For long chains, the residues can be split into blocks
+     * that are placed on a pool.
+     *
+     * @param pool the pool to place blocks of residues on, or null to place them all on the calling thread
+     */
+    public void placeAmideHydrogens(List<Residue> residues, ForkJoinPool pool) {
+        boolean[] placed = new boolean[this.length];
+        for (int i = 1; i < this.length; i++) {
+            placed[i] = !residues.get(i).isPro() && this.present[C][i - 1] && this.present[O][i - 1] && this.present[N][i];
+        }
+
+        HydrogenBlock all = new HydrogenBlock(placed, 0, this.length);
+        if (pool != null && this.length > BLOCK_SIZE) {
+            pool.invoke(all);
+        } else {
+            all.place();
+        }
+    }
+
+    public int length() {
+        return this.length;
+    }
+
+    public double[] getX(int atom) {
+        return this.x[atom];
+    }
+
+    public double[] getY(int atom) {
+        return this.y[atom];
+    }
+
+    public double[] getZ(int atom) {
+        return this.z[atom];
+    }
+
+    public boolean[] getPresent(int atom) {
+        return this.present[atom];
+    }
+
+    public boolean has(int atom, int residue) {
+        return this.present[atom][residue];
+    }
+
+    // the four atoms needed for a backbone hydrogen bond, as donor or acceptor
+    public boolean hasHBondAtoms(int residue) {
+        return this.present[N][residue] && this.present[H][residue] && this.present[O][residue] && this.present[C][residue];
+    }
+
+    public Point3d getPoint(int atom, int residue) {
+        if (this.present[atom][residue]) {
+            return new Point3d(this.x[atom][residue], this.y[atom][residue], this.z[atom][residue]);
+        } else {
+            return null;
+        }
+    }
+
+    public double distance(int atomA, int residueA, int atomB, int residueB) {
+        double dx = this.x[atomA][residueA] - this.x[atomB][residueB];
+        double dy = this.y[atomA][residueA] - this.y[atomB][residueB];
+        double dz = this.z[atomA][residueA] - this.z[atomB][residueB];
+        return Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+    // the angle a-b-c in degrees, as Geometer.angle
+    public double angle(int atomA, int residueA, int atomB, int residueB, int atomC, int residueC) {
+        return Geometer.angle(this.x[atomA][residueA], this.y[atomA][residueA], this.z[atomA][residueA],
+                              this.x[atomB][residueB], this.y[atomB][residueB], this.z[atomB][residueB],
+                              this.x[atomC][residueC], this.y[atomC][residueC], this.z[atomC][residueC]);
+    }
+
+    // the torsion a-b-c-d in degrees, or zero if any of the atoms is missing, as Geometer.torsion
+    public double torsion(int atomA, int residueA, int atomB, int residueB, int atomC, int residueC, int atomD, int residueD) {
+        if (!this.present[atomA][residueA] || !this.present[atomB][residueB] || !this.present[atomC][residueC] || !this.present[atomD][residueD]) {
+            return 0.0;
+        }
+        return Geometer.torsion(this.x[atomA][residueA], this.y[atomA][residueA], this.z[atomA][residueA],
+                                this.x[atomB][residueB], this.y[atomB][residueB], this.z[atomB][residueB],
+                                this.x[atomC][residueC], this.y[atomC][residueC], this.z[atomC][residueC],
+                                this.x[atomD][residueD], this.y[atomD][residueD], this.z[atomD][residueD]);
+    }
+
+    /**
+     * The hydrogens for a range of residues, which only writes the H of the residues in
+     * the range. The range is split in half until it is no bigger than a block.
+     */
+    private class HydrogenBlock extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private boolean[] placed;
+
+        private int start;
+
+        private int end;
+
+        public HydrogenBlock(boolean[] placed, int start, int end) {
+            this.placed = placed;
+            this.start = start;
+            this.end = end;
+        }
+
+        protected void compute() {
+            if (this.end - this.start <= BLOCK_SIZE) {
+                this.place();
+                return;
+            }
+
+            int middle = (this.start + this.end) >>> 1;
+            HydrogenBlock left = new HydrogenBlock(this.placed, this.start, middle);
+            HydrogenBlock right = new HydrogenBlock(this.placed, middle, this.end);
+            left.fork();
+            right.compute();
+            left.join();
+        }
+
+        public void place() {
+            double[] nx = x[N];
+            double[] ny = y[N];
+            double[] nz = z[N];
+            double[] cx = x[C];
+            double[] cy = y[C];
+            double[] cz = z[C];
+            double[] ox = x[O];
+            double[] oy = y[O];
+            double[] oz = z[O];
+            double[] hx = x[H];
+            double[] hy = y[H];
+            double[] hz = z[H];
+            boolean[] hPresent = present[H];
+
+            for (int i = this.start; i < this.end; i++) {
+                if (!this.placed[i]) {
+                    continue;
+                }
+                // the unit vector from the O to the C of the residue before
+                double dx = cx[i - 1] - ox[i - 1];
+                double dy = cy[i - 1] - oy[i - 1];
+                double dz = cz[i - 1] - oz[i - 1];
+                double length = Math.sqrt(dx * dx + dy * dy + dz * dz);
+                hx[i] = nx[i] + (dx / length);
+                hy[i] = ny[i] + (dy / length);
+                hz[i] = nz[i] + (dz / length);
+                hPresent[i] = true;
+            }
+        }
+    }
+}
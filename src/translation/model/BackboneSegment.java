@@ -126,7 +126,12 @@ public abstract class BackboneSegment implements Comparable<BackboneSegment> {
     public List<Point3d> getCAlphaCoordinates() {
         List<Point3d> cAlphas = new ArrayList<Point3d>();
         for (Residue nextResidue : this.residues) {
-            cAlphas.add(nextResidue.getCoordinates("CA"));
+            Chain chain = nextResidue.getChain();
+            if (chain == null) {
+                cAlphas.add(nextResidue.getCoordinates("CA"));
+            } else {
+                cAlphas.add(chain.getBackboneCoordinates().getPoint(BackboneCoordinates.CA, nextResidue.getAbsoluteNumber()));
+            }
         }
         return cAlphas;
     }
@@ -207,8 +212,8 @@ public abstract class BackboneSegment implements Comparable<BackboneSegment> {
 
         // otherwise, diff the centers of the first and last residues
         try {
-            Point3d start = this.firstResidue().getCenter();
-            Point3d end = this.lastResidue().getCenter();
+            Point3d start = BackboneSegment.center(this.firstResidue());
+            Point3d end = BackboneSegment.center(this.lastResidue());
             this.axis = new Axis(start, end);
             this.axis.setStart(start);
             this.axis.setEnd(end);
@@ -218,6 +223,18 @@ public abstract class BackboneSegment implements Comparable<BackboneSegment> {
         //System.out.println("setting axis of " + this + " to : " + this.axis);
     }
 
+    // the CA from the backbone arrays, if there is one, as Residue.getCenter
+    private static Point3d center(Residue residue) {
+        Chain chain = residue.getChain();
+        if (chain != null) {
+            Point3d cAlpha = chain.getBackboneCoordinates().getPoint(BackboneCoordinates.CA, residue.getAbsoluteNumber());
+            if (cAlpha != null) {
+                return cAlpha;
+            }
+        }
+        return residue.getCenter();
+    }
+
     // the axis we pass into the function is considered to be "UP"
     public void determineOrientation(Axis axis) {
         double angle = this.getAxis().angle(axis);
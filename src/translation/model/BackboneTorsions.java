@@ -0,0 +1,120 @@
+package translation.model;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The backbone torsions of a chain - phi, psi and omega - worked out for all of its
+ * residues in one pass over the BackboneCoordinates, and held as one primitive array
+ * per angle, indexed by the absolute number of the residue.
+ *
+ * As before, phi and psi are only found for the residues between the first and the
+ * last, and omega (the peptide bond before the residue) for every residue but the
+ * first; the rest are zero, as is any torsion with a missing atom.
+ */
+public class BackboneTorsions {
+
+    // the number of residues that are done without splitting further
+    private static final int BLOCK_SIZE = 1024;
+
+    private double[] phi;
+
+    private double[] psi;
+
+    private double[] omega;
+
+    public BackboneTorsions(BackboneCoordinates backbone) {
+        this(backbone, null);
+    }
+
+    /**
+     * @param pool the pool to work out blocks of residues on, or null to do them all on the calling thread
+     */
+    public BackboneTorsions(BackboneCoordinates backbone, ForkJoinPool pool) {
+        int length = backbone.length();
+        this.phi = new double[length];
+        this.psi = new double[length];
+        this.omega = new double[length];
+
+        TorsionBlock all = new TorsionBlock(backbone, 0, length);
+        if (pool != null && length > BLOCK_SIZE) {
+            pool.invoke(all);
+        } else {
+            all.calculate();
+        }
+    }
+
+    public int length() {
+        return this.phi.length;
+    }
+
+    public double getPhi(int residue) {
+        return this.phi[residue];
+    }
+
+    public double getPsi(int residue) {
+        return this.psi[residue];
+    }
+
+    public double getOmega(int residue) {
+        return this.omega[residue];
+    }
+
+    void setPhi(int residue, double phi) {
+        this.phi[residue] = phi;
+    }
+
+    void setPsi(int residue, double psi) {
+        this.psi[residue] = psi;
+    }
+
+    /**
+     * The torsions for a range of residues, which only writes the angles of the residues
+     * in the range. The range is split in half until it is no bigger than a block.
+     */
+    private class TorsionBlock extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private BackboneCoordinates backbone;
+
+        private int start;
+
+        private int end;
+
+        public TorsionBlock(BackboneCoordinates backbone, int start, int end) {
+            this.backbone = backbone;
+            this.start = start;
+            this.end = end;
+        }
+
+        protected void compute() {
+            if (this.end - this.start <= BLOCK_SIZE) {
+                this.calculate();
+                return;
+            }
+
+            int middle = (this.start + this.end) >>> 1;
+            TorsionBlock left = new TorsionBlock(this.backbone, this.start, middle);
+            TorsionBlock right = new TorsionBlock(this.backbone, middle, this.end);
+            left.fork();
+            right.compute();
+            left.join();
+        }
+
+        public void calculate() {
+            int N = BackboneCoordinates.N;
+            int CA = BackboneCoordinates.CA;
+            int C = BackboneCoordinates.C;
+            int length = this.backbone.length();
+
+            for (int i = Math.max(this.start, 1); i < this.end; i++) {
+                omega[i] = this.backbone.torsion(CA, i - 1, C, i - 1, N, i, CA, i);
+                if (i < length - 1) {
+                    phi[i] = this.backbone.torsion(C, i - 1, N, i, CA, i, C, i);
+                    psi[i] = this.backbone.torsion(N, i, CA, i, C, i, N, i + 1);
+                }
+            }
+        }
+    }
+}
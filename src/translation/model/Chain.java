@@ -7,9 +7,9 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 import javax.vecmath.Point3d;
-import javax.vecmath.Vector3d;
 
 import translation.Axis;
 import translation.ChainDomainMap;
@@ -20,7 +20,13 @@ public class Chain {
     private String type;
     private Point3d center;
     private List<Residue> residues;
-    private List<HBond> hbonds;
+    private Map<Long, Residue> residuesByPDBNumber;
+    private Map<Integer, Residue> firstResiduesByPDBNumber;
+    private BackboneCoordinates backboneCoordinates;
+    private boolean calculateAmideHydrogens;
+    private ForkJoinPool amideHydrogenPool;
+    private BackboneTorsions torsions;
+    private HBondTable hbondTable;
     private List<Sheet> sheets;
     private List<BackboneSegment> backboneSegments;
     private List<Edge> chiralities;
@@ -28,7 +34,10 @@ public class Chain {
 
     public Chain() {
         this.residues = new ArrayList<Residue>();
-        this.hbonds = new ArrayList<HBond>();
+        this.residuesByPDBNumber = new HashMap<Long, Residue>();
+        this.firstResiduesByPDBNumber = new HashMap<Integer, Residue>();
+        this.backboneCoordinates = null;
+        this.hbondTable = new HBondTable(this);
         this.sheets = new ArrayList<Sheet>();
         this.backboneSegments = new ArrayList<BackboneSegment>();
         this.chiralities = new ArrayList<Edge>();
@@ -64,35 +73,74 @@ public class Chain {
     // since this doesn't check, in the event that a structure actually HAS
     // backbone amide hydrogens, it will overwrite them...
     public void addBackboneAmideHydrogens() {
-        for (int i = 1; i < this.residues.size(); i++) {
-            Residue lastResidue = (Residue) this.residues.get(i - 1);
-            Residue residue     = (Residue) this.residues.get(i);
+        this.addBackboneAmideHydrogens(null);
+    }
 
-            if (residue.isPro()) {
-                continue;
-            }
+    /**
+     * Calculates the amide H of each residue (apart from the first, and prolines) from
+     * the C=O of the residue before. The hydrogens are not made here, but all at once in
+     * the backbone coordinates the next time they are made, and Residue.getCoordinates
+     * reads them back from there.
+     *
+     * @param pool the pool to place the hydrogens of long chains on, or null
+     */
+    public void addBackboneAmideHydrogens(ForkJoinPool pool) {
+        this.calculateAmideHydrogens = true;
+        this.amideHydrogenPool = pool;
+        this.backboneCoordinates = null;
+    }
 
-            Point3d lastC       = lastResidue.getCoordinates("C");
-            Point3d lastO       = lastResidue.getCoordinates("O");
-            Point3d N           =     residue.getCoordinates("N");
+    boolean hasCalculatedAmideHydrogens() {
+        return this.calculateAmideHydrogens;
+    }
 
-            Vector3d OC = new Vector3d();
-            OC.sub(lastC, lastO);
-            OC.normalize();
+    public Residue createResidue(int pdbNumber, String residueType) {
+        return this.createResidue(pdbNumber, Residue.NO_INSERTION_CODE, residueType);
+    }
 
-            Point3d H = new Point3d();
-            H.add(N, OC);
+    public Residue createResidue(int pdbNumber, char insertionCode, String residueType) {
+        Residue r = new Residue(this.residues.size(), pdbNumber, insertionCode, residueType);
+        r.setChain(this);
+        this.residues.add(r);
+        this.backboneCoordinates = null;
 
-            residue.setAtom("H", H);
+        // keep the indices in step with the list
+        Long key = Chain.pdbKey(pdbNumber, insertionCode);
+        if (!this.residuesByPDBNumber.containsKey(key)) {
+            this.residuesByPDBNumber.put(key, r);
+        }
+        Integer number = Integer.valueOf(pdbNumber);
+        if (!this.firstResiduesByPDBNumber.containsKey(number)) {
+            this.firstResiduesByPDBNumber.put(number, r);
         }
-    } 
-
-    public Residue createResidue(int pdbNumber, String residueType) {
-        Residue r = new Residue(this.residues.size(), pdbNumber, residueType);
-        this.residues.add(r);
         return r;
     }
 
+    // a single number for a residue number and insertion code, which may be negative
+    private static Long pdbKey(int pdbNumber, char insertionCode) {
+        return Long.valueOf(((long) pdbNumber << 16) | insertionCode);
+    }
+
+    /**
+     * The backbone atoms of all the residues, as arrays indexed by absolute number. This is
+     * made on the first call after any change to the residues, so callers should not hold
+     * on to it while adding atoms.
+     */
+    public BackboneCoordinates getBackboneCoordinates() {
+        if (this.backboneCoordinates == null) {
+            BackboneCoordinates backbone = new BackboneCoordinates(this.residues, true);
+            if (this.calculateAmideHydrogens) {
+                backbone.placeAmideHydrogens(this.residues, this.amideHydrogenPool);
+            }
+            this.backboneCoordinates = backbone;
+        }
+        return this.backboneCoordinates;
+    }
+
+    void backboneChanged() {
+        this.backboneCoordinates = null;
+    }
+
     public void createHelix(int helixStartIndex, int helixEndIndex) {
         BackboneSegment helix = new Helix(this.getResidueByAbsoluteNumbering(helixStartIndex));
         for (int i = helixStartIndex + 1; i < helixEndIndex + 1; i++) {
@@ -165,21 +213,20 @@ public class Chain {
     }
 
     public boolean hasResidueByPDBNumbering(int pdbResidueNumber) {
-        for (Residue residue : this.residues) {
-            if (residue.getPDBNumber() == pdbResidueNumber) {
-                return true;
-            }
-        }
-        return false;
+        return this.firstResiduesByPDBNumber.containsKey(Integer.valueOf(pdbResidueNumber));
     }
 
+    // the first residue with this number, whatever its insertion code
     public Residue getResidueByPDBNumbering(int pdbResidueNumber) {
-    	for (Residue residue : this.residues) {
-            if (residue.getPDBNumber() == pdbResidueNumber) {
-                return residue;
-            }
-        }
-        return null;
+        return this.firstResiduesByPDBNumber.get(Integer.valueOf(pdbResidueNumber));
+    }
+
+    public boolean hasResidueByPDBNumbering(int pdbResidueNumber, char insertionCode) {
+        return this.residuesByPDBNumber.containsKey(Chain.pdbKey(pdbResidueNumber, insertionCode));
+    }
+
+    public Residue getResidueByPDBNumbering(int pdbResidueNumber, char insertionCode) {
+        return this.residuesByPDBNumber.get(Chain.pdbKey(pdbResidueNumber, insertionCode));
     }
 
     public Residue getResidueByAbsoluteNumbering(int i) {
@@ -215,8 +262,13 @@ public class Chain {
     }
 
     public Iterator<HBond> hbondIterator() {
-        Collections.sort(this.hbonds);
-        return this.hbonds.iterator();
+        List<HBond> hbonds = this.hbondTable.getHBonds();
+        Collections.sort(hbonds);
+        return hbonds.iterator();
+    }
+
+    public HBondTable getHBondTable() {
+        return this.hbondTable;
     }
 
     public void addSheet(Sheet sheet) {
@@ -280,7 +332,7 @@ public class Chain {
     }
 
     public void addHBond(HBond hbond) {
-        this.hbonds.add(hbond);
+        this.hbondTable.add(hbond);
     }
 
     public void setLabel(String label) {
@@ -327,42 +379,25 @@ public class Chain {
         return domain.filter(this.backboneSegments);
     }
 
+    // phi and psi for all but the first and last residues
     public void calculateTorsions() {
-        Iterator<Residue> residueIterator = this.residueIterator();
-        Residue previousResidue = null;
-        Residue thisResidue = null;
-
-        if (residueIterator.hasNext()) {
-            previousResidue = (Residue) residueIterator.next();
-        }
-
-        if (residueIterator.hasNext()) {
-            thisResidue = (Residue) residueIterator.next();
-        }
-
-        while (residueIterator.hasNext()) {
-            Point3d prevC = previousResidue.getCoordinates("C");
-            Point3d thisN = thisResidue.getCoordinates("N");
-            Point3d thisCA = thisResidue.getCoordinates("CA");
-            Point3d thisC = thisResidue.getCoordinates("C");
-
-            double phi = Geometer.torsion(prevC, thisN, thisCA, thisC);
-            thisResidue.setPhi(phi);
-
-            previousResidue = thisResidue;
-            if (residueIterator.hasNext()) {
-                Residue nextResidue = (Residue) residueIterator.next();
-
-                Point3d nextN = nextResidue.getCoordinates("N");
+        this.calculateTorsions(null);
+    }
 
-                double psi = Geometer.torsion(thisN, thisCA, thisC, nextN);
-                thisResidue.setPsi(psi);
+    /**
+     * Works out the torsions of all the residues at once, into arrays that the residues
+     * read their phi and psi from. These are kept until the torsions are calculated again,
+     * even if atoms are changed.
+     *
+     * @param pool the pool to work out the torsions of long chains on, or null
+     */
+    public void calculateTorsions(ForkJoinPool pool) {
+        this.torsions = new BackboneTorsions(this.getBackboneCoordinates(), pool);
+    }
 
-                thisResidue = nextResidue;
-            } else {
-                break;
-            }
-        }
+    // the torsions from the last calculateTorsions, or null if they have not been calculated
+    public BackboneTorsions getTorsions() {
+        return this.torsions;
     }
 
     public void findOrientations() {
@@ -501,8 +536,8 @@ public class Chain {
             s.append("\n");
         }
 
-        for (HBond nextBond : this.hbonds) {
-            s.append(nextBond + "\n");
+        for (int i = 0; i < this.hbondTable.size(); i++) {
+            s.append(this.hbondTable.getHBond(i) + "\n");
         }
 
         for (BackboneSegment nextBackboneSegment : this.backboneSegments) {
@@ -512,6 +547,24 @@ public class Chain {
         for (Sheet sheet : this.sheets) {
             System.out.println("Sheet paths " + sheet.getSheetPaths());
             s.append(sheet + "\n");
+
+            // the ladders across the sheet, in strand order, and the one that closes a barrel
+            List<BackboneSegment> order = sheet.getStrandOrder();
+            boolean barrel = sheet.isBarrel();
+            s.append("Strand order " + order + (barrel ? " (barrel)" : "") + "\n");
+            for (int i = 0; i < order.size(); i++) {
+                int next = i + 1;
+                if (next == order.size()) {
+                    if (!barrel) {
+                        break;
+                    }
+                    next = 0;
+                }
+                Ladder ladder = sheet.getLadder(order.get(i), order.get(next));
+                if (ladder != null) {
+                    s.append(ladder + "\n");
+                }
+            }
         }
 
         return s.toString();
@@ -66,6 +66,18 @@ public class HBond implements Comparable<HBond> {
         return this.donor == residue;
     }
 
+    public double getDistance() {
+        return this.distance;
+    }
+
+    public double getNHOAngle() {
+        return this.nhoAngle;
+    }
+
+    public double getHOCAngle() {
+        return this.hocAngle;
+    }
+
     public String toFullString() {
     	return String.format("%3s - %3s (%4.2f, %6.2f, %6.2f)", this.donor, this.acceptor, this.distance, this.nhoAngle, this.hocAngle);    	
     }
@@ -0,0 +1,248 @@
+package translation.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The hydrogen bonds of a chain, held in parallel primitive arrays rather than as one
+ * object per bond. Bonds are numbered in the order they were added, and refer to their
+ * residues by absolute number.
+ *
+ * For each residue, the bonds it donates (its N-terminal bonds) and those it accepts
+ * (its C-terminal bonds) are found through a compressed index : a start offset per
+ * residue into one array of bond numbers, in the order the bonds were added. The index
+ * is made when it is first needed after a bond has been added.
+ *
+ * HBond objects are only made as views, for callers that need them.
+ */
+public class HBondTable {
+
+    private Chain chain;
+
+    private int size;
+
+    private int[] donors;
+
+    private int[] acceptors;
+
+    private double[] distances;
+
+    private double[] nhoAngles;
+
+    private double[] hocAngles;
+
+    // the index, or null if bonds have been added since it was made
+    private int[] donorStarts;
+
+    private int[] donorBonds;
+
+    private int[] acceptorStarts;
+
+    private int[] acceptorBonds;
+
+    public HBondTable(Chain chain) {
+        this.chain = chain;
+        this.size = 0;
+        this.donors = new int[16];
+        this.acceptors = new int[16];
+        this.distances = new double[16];
+        this.nhoAngles = new double[16];
+        this.hocAngles = new double[16];
+    }
+
+    /**
+     * @return the number of the new bond
+     */
+    public int add(int donor, int acceptor, double distance, double nhoAngle, double hocAngle) {
+        if (this.size == this.donors.length) {
+            int capacity = this.size * 2;
+            this.donors = Arrays.copyOf(this.donors, capacity);
+            this.acceptors = Arrays.copyOf(this.acceptors, capacity);
+            this.distances = Arrays.copyOf(this.distances, capacity);
+            this.nhoAngles = Arrays.copyOf(this.nhoAngles, capacity);
+            this.hocAngles = Arrays.copyOf(this.hocAngles, capacity);
+        }
+        this.donors[this.size] = donor;
+        this.acceptors[this.size] = acceptor;
+        this.distances[this.size] = distance;
+        this.nhoAngles[this.size] = nhoAngle;
+        this.hocAngles[this.size] = hocAngle;
+        this.donorStarts = null;
+        return this.size++;
+    }
+
+    public int add(HBond hbond) {
+        return this.add(hbond.donor().getAbsoluteNumber(), hbond.acceptor().getAbsoluteNumber(), hbond.getDistance(), hbond.getNHOAngle(), hbond.getHOCAngle());
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public int getDonor(int bond) {
+        return this.donors[bond];
+    }
+
+    public int getAcceptor(int bond) {
+        return this.acceptors[bond];
+    }
+
+    public double getDistance(int bond) {
+        return this.distances[bond];
+    }
+
+    public double getNHOAngle(int bond) {
+        return this.nhoAngles[bond];
+    }
+
+    public double getHOCAngle(int bond) {
+        return this.hocAngles[bond];
+    }
+
+    // as HBond.getResidueSeparation
+    public int getResidueSeparation(int bond) {
+        return Math.abs(this.donors[bond] - this.acceptors[bond]);
+    }
+
+    public boolean contains(int donor, int acceptor) {
+        // the bond just added is the usual case, from callers that add a bond to the chain and then to its residues
+        if (this.size > 0 && this.donors[this.size - 1] == donor && this.acceptors[this.size - 1] == acceptor) {
+            return true;
+        }
+        for (int i = 0; i < this.size; i++) {
+            if (this.donors[i] == donor && this.acceptors[i] == acceptor) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // the range in donorBonds of the bonds donated by a residue
+    public int donorStart(int residue) {
+        this.index();
+        return (residue < this.donorStarts.length - 1) ? this.donorStarts[residue] : this.size;
+    }
+
+    public int donorEnd(int residue) {
+        this.index();
+        return (residue < this.donorStarts.length - 1) ? this.donorStarts[residue + 1] : this.size;
+    }
+
+    public int donorBond(int k) {
+        return this.donorBonds[k];
+    }
+
+    // the range in acceptorBonds of the bonds accepted by a residue
+    public int acceptorStart(int residue) {
+        this.index();
+        return (residue < this.acceptorStarts.length - 1) ? this.acceptorStarts[residue] : this.size;
+    }
+
+    public int acceptorEnd(int residue) {
+        this.index();
+        return (residue < this.acceptorStarts.length - 1) ? this.acceptorStarts[residue + 1] : this.size;
+    }
+
+    public int acceptorBond(int k) {
+        return this.acceptorBonds[k];
+    }
+
+    public HBond getHBond(int bond) {
+        return new HBond(this.chain.getResidueByAbsoluteNumbering(this.donors[bond]),
+                         this.chain.getResidueByAbsoluteNumbering(this.acceptors[bond]),
+                         this.distances[bond], this.nhoAngles[bond], this.hocAngles[bond]);
+    }
+
+    public List<HBond> getNTerminalHBonds(int residue) {
+        int start = this.donorStart(residue);
+        int end = this.donorEnd(residue);
+        List<HBond> hbonds = new ArrayList<HBond>(end - start);
+        for (int k = start; k < end; k++) {
+            hbonds.add(this.getHBond(this.donorBonds[k]));
+        }
+        return hbonds;
+    }
+
+    public List<HBond> getCTerminalHBonds(int residue) {
+        int start = this.acceptorStart(residue);
+        int end = this.acceptorEnd(residue);
+        List<HBond> hbonds = new ArrayList<HBond>(end - start);
+        for (int k = start; k < end; k++) {
+            hbonds.add(this.getHBond(this.acceptorBonds[k]));
+        }
+        return hbonds;
+    }
+
+    // the bonds of a residue, as either donor or acceptor, in the order they were added
+    public int[] getBonds(int residue) {
+        int d = this.donorStart(residue);
+        int dEnd = this.donorEnd(residue);
+        int a = this.acceptorStart(residue);
+        int aEnd = this.acceptorEnd(residue);
+        int[] bonds = new int[(dEnd - d) + (aEnd - a)];
+        int i = 0;
+        while (d < dEnd || a < aEnd) {
+            if (a == aEnd || (d < dEnd && this.donorBonds[d] < this.acceptorBonds[a])) {
+                bonds[i++] = this.donorBonds[d++];
+            } else {
+                bonds[i++] = this.acceptorBonds[a++];
+            }
+        }
+        return bonds;
+    }
+
+    public List<HBond> getHBonds(int residue) {
+        int[] bonds = this.getBonds(residue);
+        List<HBond> hbonds = new ArrayList<HBond>(bonds.length);
+        for (int i = 0; i < bonds.length; i++) {
+            hbonds.add(this.getHBond(bonds[i]));
+        }
+        return hbonds;
+    }
+
+    // the absolute numbers of the residues bonded to a residue, in the same order as getBonds
+    public int[] getPartners(int residue) {
+        int[] bonds = this.getBonds(residue);
+        for (int i = 0; i < bonds.length; i++) {
+            int bond = bonds[i];
+            bonds[i] = (this.donors[bond] == residue) ? this.acceptors[bond] : this.donors[bond];
+        }
+        return bonds;
+    }
+
+    public List<HBond> getHBonds() {
+        List<HBond> hbonds = new ArrayList<HBond>(this.size);
+        for (int i = 0; i < this.size; i++) {
+            hbonds.add(this.getHBond(i));
+        }
+        return hbonds;
+    }
+
+    // a counting sort of the bonds by residue, which keeps them in the order they were added
+    private void index() {
+        int length = this.chain.length();
+        if (this.donorStarts != null && this.donorStarts.length == length + 1) {
+            return;
+        }
+        this.donorBonds = new int[this.size];
+        this.acceptorBonds = new int[this.size];
+        this.acceptorStarts = HBondTable.index(this.acceptors, this.size, length, this.acceptorBonds);
+        this.donorStarts = HBondTable.index(this.donors, this.size, length, this.donorBonds);
+    }
+
+    private static int[] index(int[] residues, int size, int length, int[] bonds) {
+        int[] starts = new int[length + 1];
+        for (int i = 0; i < size; i++) {
+            starts[residues[i] + 1]++;
+        }
+        for (int r = 0; r < length; r++) {
+            starts[r + 1] += starts[r];
+        }
+        int[] next = Arrays.copyOf(starts, length);
+        for (int i = 0; i < size; i++) {
+            bonds[next[residues[i]]++] = i;
+        }
+        return starts;
+    }
+}
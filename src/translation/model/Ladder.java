@@ -0,0 +1,128 @@
+package translation.model;
+
+/**
+ * The pairing of two strands in a sheet : whether they run parallel ('P') or
+ * antiparallel ('A'), the ranges of residues that are paired, and the register - which
+ * residue of one strand is paired with which of the other.
+ *
+ * The pairing comes from the bridges between the strands, as defined by DSSP : residues
+ * i and j make an antiparallel bridge if they are bonded to each other both ways, or if
+ * i-1 and j+1 and j-1 and i+1 are; and a parallel bridge if i-1, j and j, i+1 (or j-1, i
+ * and i, j+1) are bonded. The register is the most common i + j of the bridges of an
+ * antiparallel ladder, or i - j of a parallel one, with i on the first strand and j on
+ * the second, numbered absolutely; so for an antiparallel ladder the residue paired with
+ * residue i is register - i.
+ *
+ * If the bonds between the strands make no bridges, the ladder is taken from the bonded
+ * residues instead, with the orientation of the strand axes.
+ */
+public class Ladder {
+
+    private BackboneSegment first;
+
+    private BackboneSegment second;
+
+    private char type;
+
+    private int firstStart;
+
+    private int firstEnd;
+
+    private int secondStart;
+
+    private int secondEnd;
+
+    private int register;
+
+    private int numberOfBridges;
+
+    private int numberOfHBonds;
+
+    public Ladder(BackboneSegment first, BackboneSegment second, char type, int firstStart, int firstEnd, int secondStart, int secondEnd, int register, int numberOfBridges, int numberOfHBonds) {
+        this.first = first;
+        this.second = second;
+        this.type = type;
+        this.firstStart = firstStart;
+        this.firstEnd = firstEnd;
+        this.secondStart = secondStart;
+        this.secondEnd = secondEnd;
+        this.register = register;
+        this.numberOfBridges = numberOfBridges;
+        this.numberOfHBonds = numberOfHBonds;
+    }
+
+    public BackboneSegment getFirst() {
+        return this.first;
+    }
+
+    public BackboneSegment getSecond() {
+        return this.second;
+    }
+
+    public boolean contains(BackboneSegment strand) {
+        return this.first == strand || this.second == strand;
+    }
+
+    public BackboneSegment getPartner(BackboneSegment strand) {
+        if (strand == this.first) {
+            return this.second;
+        } else if (strand == this.second) {
+            return this.first;
+        } else {
+            return null;
+        }
+    }
+
+    public char getType() {
+        return this.type;
+    }
+
+    public boolean isParallel() {
+        return this.type == 'P';
+    }
+
+    // the first and last paired residues of the first strand, by absolute number
+    public int getFirstStart() {
+        return this.firstStart;
+    }
+
+    public int getFirstEnd() {
+        return this.firstEnd;
+    }
+
+    // the first and last paired residues of the second strand, by absolute number
+    public int getSecondStart() {
+        return this.secondStart;
+    }
+
+    public int getSecondEnd() {
+        return this.secondEnd;
+    }
+
+    public int getRegister() {
+        return this.register;
+    }
+
+    /**
+     * @return the residue of the second strand in register with residue i of the first
+     */
+    public int getPartnerOf(int i) {
+        if (this.type == 'A') {
+            return this.register - i;
+        } else {
+            return i - this.register;
+        }
+    }
+
+    public int getNumberOfBridges() {
+        return this.numberOfBridges;
+    }
+
+    public int getNumberOfHBonds() {
+        return this.numberOfHBonds;
+    }
+
+    public String toString() {
+        return this.first + " " + this.type + " " + this.second + " [" + this.firstStart + "-" + this.firstEnd + " : " + this.secondStart + "-" + this.secondEnd + "] register " + this.register;
+    }
+}
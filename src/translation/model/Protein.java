@@ -2,6 +2,7 @@ package translation.model;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -14,9 +15,13 @@ public class Protein {
     private String id;
     private List<Chain> chains;
 
+    // hydrogen bonds between residues of different chains, if they have been looked for
+    private List<HBond> interChainHBonds;
+
     public Protein() {
         this.id = "";
         this.chains = new ArrayList<Chain>();
+        this.interChainHBonds = new ArrayList<HBond>();
     }
 
     public Protein(String id) {
@@ -36,6 +41,22 @@ public class Protein {
         return this.chains.iterator();
     }
 
+    public void addInterChainHBond(HBond hbond) {
+        this.interChainHBonds.add(hbond);
+    }
+
+    public void clearInterChainHBonds() {
+        this.interChainHBonds.clear();
+    }
+
+    public Iterator<HBond> interChainHBondIterator() {
+        return this.interChainHBonds.iterator();
+    }
+
+    public int numberOfInterChainHBonds() {
+        return this.interChainHBonds.size();
+    }
+
     public void findStructure(StructureFinder structureFinder) {
         for (int i = 0; i < this.chains.size(); i++) {
             structureFinder.findStructure((Chain) this.chains.get(i));
@@ -88,12 +109,71 @@ public class Protein {
         return chainStrings;
     }
 
+    /**
+     * The pairs of strands in different chains that are joined by inter-chain bonds, as
+     * (first, second) with first in the earlier chain, in the order of their first bond.
+     * These are the pairs of a sheet that spans two subunits, which the sheets of each
+     * chain cannot show.
+     */
+    public List<BackboneSegment[]> getInterChainStrandPairs() {
+        Map<Residue, BackboneSegment> strandOf = new IdentityHashMap<Residue, BackboneSegment>();
+        Map<BackboneSegment, Integer> chainNumbers = new IdentityHashMap<BackboneSegment, Integer>();
+        for (int i = 0; i < this.chains.size(); i++) {
+            Iterator<BackboneSegment> segments = this.chains.get(i).backboneSegmentIterator();
+            while (segments.hasNext()) {
+                BackboneSegment segment = segments.next();
+                if (!(segment instanceof Strand)) {
+                    continue;
+                }
+                chainNumbers.put(segment, Integer.valueOf(i));
+                Iterator<Residue> residues = segment.residueIterator();
+                while (residues.hasNext()) {
+                    strandOf.put(residues.next(), segment);
+                }
+            }
+        }
+
+        List<BackboneSegment[]> pairs = new ArrayList<BackboneSegment[]>();
+        Map<BackboneSegment, List<BackboneSegment>> partners = new IdentityHashMap<BackboneSegment, List<BackboneSegment>>();
+        for (HBond hbond : this.interChainHBonds) {
+            BackboneSegment first = strandOf.get(hbond.donor());
+            BackboneSegment second = strandOf.get(hbond.acceptor());
+            if (first == null || second == null) {
+                continue;
+            }
+            if (chainNumbers.get(first).intValue() > chainNumbers.get(second).intValue()) {
+                BackboneSegment swap = first;
+                first = second;
+                second = swap;
+            }
+            List<BackboneSegment> firstPartners = partners.get(first);
+            if (firstPartners == null) {
+                firstPartners = new ArrayList<BackboneSegment>();
+                partners.put(first, firstPartners);
+            }
+            if (!firstPartners.contains(second)) {
+                firstPartners.add(second);
+                pairs.add(new BackboneSegment[] { first, second });
+            }
+        }
+        return pairs;
+    }
+
     public String toString() {
         StringBuffer stringBuffer = new StringBuffer();
         for (int i = 0; i < this.chains.size(); i++) {
             Chain chain = (Chain) this.chains.get(i);
             stringBuffer.append(chain.toString());
         }
+
+        for (HBond hbond : this.interChainHBonds) {
+            stringBuffer.append("Inter-chain hbond " + hbond.donor().getChain().getCathCompatibleLabel() + " - " + hbond.acceptor().getChain().getCathCompatibleLabel()
+                                + " : " + hbond.toFullString() + "\n");
+        }
+        for (BackboneSegment[] pair : this.getInterChainStrandPairs()) {
+            stringBuffer.append("Inter-chain pair " + pair[0].firstResidue().getChain().getCathCompatibleLabel() + " " + pair[0] + " - "
+                                + pair[1].firstResidue().getChain().getCathCompatibleLabel() + " " + pair[1] + "\n");
+        }
         return stringBuffer.toString();
     }
 
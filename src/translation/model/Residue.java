@@ -11,19 +11,28 @@ import javax.vecmath.Point3d;
 import translation.Geometer;
 
 public class Residue implements Comparable<Residue> {
+
+    // the only atoms that the analysis ever looks at
+    public static final String[] BACKBONE_ATOM_TYPES = { "N", "CA", "C", "O", "H" };
+
+    public static final char NO_INSERTION_CODE = ' ';
+
     private Map<String, Point3d> atoms;
+    private Chain chain;
     private int absoluteNumber;
     private int pdbNumber;
+    private char insertionCode;
     private String type;
     private String polymerType;
     private String environment;
+    // only for a residue that is not in a chain; otherwise, the bonds are in the chain's table
     private List<HBond> hBonds;
     private double phi;
     private double psi;
 
     public Residue() {
         atoms = new HashMap<String, Point3d>();
-        hBonds = new ArrayList<HBond>();
+        hBonds = null;
         this.phi = 0;
         this.psi = 0;
         this.type = "None";
@@ -35,10 +44,16 @@ public class Residue implements Comparable<Residue> {
         this();
         this.absoluteNumber = absoluteNumber;
         this.pdbNumber = pdbNumber;
+        this.insertionCode = NO_INSERTION_CODE;
     }
 
     public Residue(int absoluteNumber, int pdbNumber, String type) {
+        this(absoluteNumber, pdbNumber, NO_INSERTION_CODE, type);
+    }
+
+    public Residue(int absoluteNumber, int pdbNumber, char insertionCode, String type) {
         this(absoluteNumber, pdbNumber);
+        this.insertionCode = insertionCode;
         this.type = type.trim();
         if (this.isBase()) {
             this.polymerType = "DNA";
@@ -51,6 +66,15 @@ public class Residue implements Comparable<Residue> {
         return new Integer(this.absoluteNumber).compareTo(new Integer(other.absoluteNumber));
     }
 
+    public static boolean isBackboneAtom(String atomType) {
+        for (int i = 0; i < BACKBONE_ATOM_TYPES.length; i++) {
+            if (BACKBONE_ATOM_TYPES[i].equals(atomType)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public boolean isPro() {
         return this.type.equals("PRO");
     }
@@ -94,18 +118,46 @@ public class Residue implements Comparable<Residue> {
         return this.environment;
     }
 
+    /**
+     * Add a bond to the chain's table, unless it is already there - as it will be for
+     * callers that add each bond to the chain and then to both of its residues.
+     */
     public void addHBond(HBond hbond) {
-        this.hBonds.add(hbond);
+        if (this.chain != null) {
+            HBondTable table = this.chain.getHBondTable();
+            if (!table.contains(hbond.donor().getAbsoluteNumber(), hbond.acceptor().getAbsoluteNumber())) {
+                table.add(hbond);
+            }
+        } else {
+            if (this.hBonds == null) {
+                this.hBonds = new ArrayList<HBond>();
+            }
+            this.hBonds.add(hbond);
+        }
+    }
+
+    private List<HBond> getHBonds() {
+        if (this.chain != null) {
+            return this.chain.getHBondTable().getHBonds(this.absoluteNumber);
+        } else if (this.hBonds != null) {
+            return this.hBonds;
+        } else {
+            return new ArrayList<HBond>();
+        }
     }
 
     public Iterator<HBond> getHBondIterator() {
-        return this.hBonds.iterator();
+        return this.getHBonds().iterator();
     }
 
     public List<HBond> getNTerminalHBonds() {
+        if (this.chain != null) {
+            return this.chain.getHBondTable().getNTerminalHBonds(this.absoluteNumber);
+        }
+    	List<HBond> hBonds = this.getHBonds();
     	List<HBond> nTerminalHBonds = new ArrayList<HBond>();
-        for (int i = 0; i < this.hBonds.size(); i++) {
-            HBond hBond = this.hBonds.get(i);
+        for (int i = 0; i < hBonds.size(); i++) {
+            HBond hBond = hBonds.get(i);
             if (hBond.residueIsDonor(this)) {
                 //System.out.println("N : " + hBond + " for " + this);
                 nTerminalHBonds.add(hBond);
@@ -115,9 +167,13 @@ public class Residue implements Comparable<Residue> {
     }
 
     public List<HBond> getCTerminalHBonds() {
+        if (this.chain != null) {
+            return this.chain.getHBondTable().getCTerminalHBonds(this.absoluteNumber);
+        }
+    	List<HBond> hBonds = this.getHBonds();
     	List<HBond> cTerminalHBonds = new ArrayList<HBond>();
-        for (int i = 0; i < this.hBonds.size(); i++) {
-            HBond hBond = this.hBonds.get(i);
+        for (int i = 0; i < hBonds.size(); i++) {
+            HBond hBond = hBonds.get(i);
             if (hBond.residueIsAcceptor(this)) {
                 //System.out.println("C : " + hBond + " for " + this);
                 cTerminalHBonds.add(hBond);
@@ -127,8 +183,12 @@ public class Residue implements Comparable<Residue> {
     }
 
     public int[] getHBondPartners() {
-        int[] partners = new int[this.hBonds.size()];
-        for (int i = 0; i < this.hBonds.size(); i++) {
+        if (this.chain != null) {
+            return this.chain.getHBondTable().getPartners(this.absoluteNumber);
+        }
+        List<HBond> hBonds = this.getHBonds();
+        int[] partners = new int[hBonds.size()];
+        for (int i = 0; i < hBonds.size(); i++) {
             HBond hbond = hBonds.get(i);
             partners[i] = hbond.getPartner(this).getAbsoluteNumber();
         }
@@ -136,8 +196,21 @@ public class Residue implements Comparable<Residue> {
     }
 
     public boolean bondedTo(Residue other) {
-        for (int i = 0; i < this.hBonds.size(); i++) {
-            HBond hbond = this.hBonds.get(i);
+        if (this.chain != null) {
+            if (other.chain != this.chain) {
+                return false;
+            }
+            int[] partners = this.chain.getHBondTable().getPartners(this.absoluteNumber);
+            for (int i = 0; i < partners.length; i++) {
+                if (partners[i] == other.absoluteNumber) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        List<HBond> hBonds = this.getHBonds();
+        for (int i = 0; i < hBonds.size(); i++) {
+            HBond hbond = hBonds.get(i);
             if (hbond == null) { System.err.println("hbond null"); continue; }
             if (hbond.contains(other)) {
                 return true;
@@ -148,22 +221,63 @@ public class Residue implements Comparable<Residue> {
 
     public void setPhi(double phi) {
         this.phi = phi;
+        BackboneTorsions torsions = this.getTorsions();
+        if (torsions != null) {
+            torsions.setPhi(this.absoluteNumber, phi);
+        }
     }
 
     public void setPsi(double psi) {
         this.psi = psi;
+        BackboneTorsions torsions = this.getTorsions();
+        if (torsions != null) {
+            torsions.setPsi(this.absoluteNumber, psi);
+        }
     }
 
     public double getPhi() {
+        BackboneTorsions torsions = this.getTorsions();
+        if (torsions != null) {
+            return torsions.getPhi(this.absoluteNumber);
+        }
         return this.phi;
     }
 
     public double getPsi() {
+        BackboneTorsions torsions = this.getTorsions();
+        if (torsions != null) {
+            return torsions.getPsi(this.absoluteNumber);
+        }
         return this.psi;
     }
 
+    // the torsion about the peptide bond before this residue, or zero if it has not been calculated
+    public double getOmega() {
+        BackboneTorsions torsions = this.getTorsions();
+        if (torsions != null) {
+            return torsions.getOmega(this.absoluteNumber);
+        }
+        return 0.0;
+    }
+
+    // the torsions calculated by the chain, if they include this residue
+    private BackboneTorsions getTorsions() {
+        if (this.chain != null) {
+            BackboneTorsions torsions = this.chain.getTorsions();
+            if (torsions != null && this.absoluteNumber < torsions.length()) {
+                return torsions;
+            }
+        }
+        return null;
+    }
+
     public void setAtom(String atomType, Point3d coordinates) {
         atoms.put(atomType, coordinates);
+
+        // any copy of the backbone is now out of date
+        if (this.chain != null) {
+            this.chain.backboneChanged();
+        }
     }
 
     public void setAtom(String atomType, String xyz) {
@@ -197,13 +311,39 @@ public class Residue implements Comparable<Residue> {
     }
 
     public Point3d calculateCenterOfMass() {
-        return Geometer.averagePoints(this.atoms.values());
+        Point3d hydrogen = this.getCoordinates("H");
+        if (hydrogen == null || this.atoms.containsKey("H")) {
+            return Geometer.averagePoints(this.atoms.values());
+        }
+
+        // include a hydrogen calculated by the chain
+        List<Point3d> points = new ArrayList<Point3d>(this.atoms.values());
+        points.add(hydrogen);
+        return Geometer.averagePoints(points);
     }
 
     public Point3d getCoordinates(String atomType) {
+        // amide hydrogens calculated by the chain are only held in its backbone coordinates
+        if (this.chain != null && this.chain.hasCalculatedAmideHydrogens() && atomType.equals("H")) {
+            return this.chain.getBackboneCoordinates().getPoint(BackboneCoordinates.H, this.absoluteNumber);
+        }
         return (Point3d) this.atoms.get(atomType);
     }
 
+    // just the atom held by this residue, for making the backbone coordinates
+    Point3d getAtom(String atomType) {
+        return (Point3d) this.atoms.get(atomType);
+    }
+
+    void setChain(Chain chain) {
+        this.chain = chain;
+    }
+
+    // the chain that made this residue, if any
+    public Chain getChain() {
+        return this.chain;
+    }
+
     public int getAbsoluteNumber() {
         return this.absoluteNumber;
     }
@@ -212,13 +352,17 @@ public class Residue implements Comparable<Residue> {
         return this.pdbNumber;
     }
 
+    public char getInsertionCode() {
+        return this.insertionCode;
+    }
+
     public String getType() {
         return this.type;
     }
 
     public String hBondString() {
         StringBuffer strbuf = new StringBuffer();
-       for (HBond hbond : this.hBonds) {
+       for (HBond hbond : this.getHBonds()) {
             strbuf.append(hbond).append(" ");
         }
         return strbuf.toString();
@@ -231,7 +375,11 @@ public class Residue implements Comparable<Residue> {
 
     public String toString() {
         //return String.format("%s-%d ", this.type, this.pdbNumber);
-        return this.type + " " + this.pdbNumber;
+        if (this.insertionCode == NO_INSERTION_CODE) {
+            return this.type + " " + this.pdbNumber;
+        } else {
+            return this.type + " " + this.pdbNumber + this.insertionCode;
+        }
     }
 
     public static void main(String[] args) {
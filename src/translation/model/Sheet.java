@@ -1,10 +1,14 @@
 package translation.model;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.logging.Logger;
 
 import javax.vecmath.Point3d;
@@ -24,11 +28,15 @@ public class Sheet {
     private TreeMap<BackboneSegment, List<BackboneSegment>> strandMap;
     private Axis axis;
 
+    // the pairing of the residues of each pair of strands, where known, in the order they were added
+    private List<Ladder> ladders;
+
     public Sheet(int number) {
         this.number = number;
         //this.strands = new ArrayList();
         this.strandMap = new TreeMap<BackboneSegment, List<BackboneSegment>>();
         this.axis = null;
+        this.ladders = new ArrayList<Ladder>();
     }
 
     public Sheet(int number, BackboneSegment first, BackboneSegment second) {
@@ -55,6 +63,26 @@ public class Sheet {
         values.add(partner);
     }
 
+    // add the pair of strands of a ladder, as addPair, keeping the ladder
+    public void addLadder(Ladder ladder) {
+        this.addPair(ladder.getFirst(), ladder.getSecond());
+        this.ladders.add(ladder);
+    }
+
+    public List<Ladder> getLadders() {
+        return this.ladders;
+    }
+
+    // the ladder between two strands, either way round, or null if there is none
+    public Ladder getLadder(BackboneSegment strand, BackboneSegment partner) {
+        for (Ladder ladder : this.ladders) {
+            if (ladder.contains(strand) && ladder.getPartner(strand) == partner) {
+                return ladder;
+            }
+        }
+        return null;
+    }
+
     public List<BackboneSegment> getPartners(BackboneSegment key) {
         return this.strandMap.get(key);
     }
@@ -109,6 +137,7 @@ public class Sheet {
                 this.strandMap.put(key, otherValues);
             }
         }
+        this.ladders.addAll(other.getLadders());
     }
 
     public Iterator<BackboneSegment> iterator() {
@@ -116,20 +145,16 @@ public class Sheet {
     }
 
     public Iterator<BackboneSegment> chainOrderIterator() {
-        List<BackboneSegment> chainOrder = new ArrayList<BackboneSegment>();
-        chainOrder.addAll(this.strandMap.keySet());
-        Iterator<BackboneSegment> iterator = this.iterator();
-        while (iterator.hasNext()) {
-            List<BackboneSegment> partners = this.strandMap.get(iterator.next());
-            for (int i = 0; i < partners.size(); i++) {
-                BackboneSegment partner = (BackboneSegment) partners.get(i);
-                if (!chainOrder.contains(partner)) {
-                    chainOrder.add(partner);
-                }
-            }
+        return this.getStrands().iterator();
+    }
+
+    // all the strands of the sheet, keys and partners, in chain order
+    public TreeSet<BackboneSegment> getStrands() {
+        TreeSet<BackboneSegment> strands = new TreeSet<BackboneSegment>(this.strandMap.keySet());
+        for (List<BackboneSegment> partners : this.strandMap.values()) {
+            strands.addAll(partners);
         }
-        Collections.sort(chainOrder);
-        return chainOrder.iterator();
+        return strands;
     }
 
     public boolean contains(BackboneSegment strand) {
@@ -146,30 +171,125 @@ public class Sheet {
         return false;
     }
 
+    /**
+     * The paths through the sheet, from one walk over the pairs of strands : each path
+     * starts from a strand not yet visited - an edge strand (with one neighbour) first,
+     * in chain order - and steps to the first neighbour not yet visited, until there is
+     * none. So every strand is in exactly one path; a simple sheet, or a barrel, is one
+     * path, and each branch of a bifurcated sheet starts another.
+     */
     public List<List<BackboneSegment>> getSheetPaths() {
+        return this.getSheetPaths(this.getNeighbours());
+    }
+
+    private List<List<BackboneSegment>> getSheetPaths(Map<BackboneSegment, List<BackboneSegment>> neighbours) {
+        TreeSet<BackboneSegment> strands = this.getStrands();
+        Set<BackboneSegment> visited = new HashSet<BackboneSegment>();
+        Map<BackboneSegment, Integer> nextNeighbour = new HashMap<BackboneSegment, Integer>();
+
         List<List<BackboneSegment>> paths = new ArrayList<List<BackboneSegment>>();
-        Iterator<BackboneSegment> iterator = this.iterator();
-        while (iterator.hasNext()) {
-            BackboneSegment key = (BackboneSegment) iterator.next();
-            paths.add(this.traverseSheetPath(key, new ArrayList<BackboneSegment>()));
+        for (int pass = 0; pass < 2; pass++) {
+            for (BackboneSegment strand : strands) {
+                if (visited.contains(strand) || (pass == 0 && neighbours.get(strand).size() != 1)) {
+                    continue;
+                }
+                List<BackboneSegment> path = new ArrayList<BackboneSegment>();
+                path.add(strand);
+                visited.add(strand);
+                this.walk(strand, path, visited, neighbours, nextNeighbour);
+                paths.add(path);
+            }
         }
         return paths;
     }
 
+    /**
+     * Adds to the path the strands reached by stepping from the current strand to the
+     * first neighbour not already in the path, until there is none. Each strand is only
+     * visited once, so this stops on a closed barrel.
+     */
     public List<BackboneSegment> traverseSheetPath(BackboneSegment currentStrand, List<BackboneSegment> path) {
-        List<BackboneSegment> partners = this.strandMap.get(currentStrand);
-        for (int i = 0; i < partners.size(); i++) {
-            BackboneSegment partner = partners.get(i);
-            path.add(partner);
-            if (this.strandMap.containsKey(partner)) {
-                this.traverseSheetPath(partner, path);            
-            } else {
-                return path;
-            }
-        } 
+        Set<BackboneSegment> visited = new HashSet<BackboneSegment>(path);
+        visited.add(currentStrand);
+        this.walk(currentStrand, path, visited, this.getNeighbours(), new HashMap<BackboneSegment, Integer>());
         return path;
     }
 
+    // the strands of the sheet in order across it, as the paths of getSheetPaths one after the other
+    public List<BackboneSegment> getStrandOrder() {
+        List<BackboneSegment> order = new ArrayList<BackboneSegment>();
+        for (List<BackboneSegment> path : this.getSheetPaths()) {
+            order.addAll(path);
+        }
+        return order;
+    }
+
+    /**
+     * A sheet is a closed barrel if every strand is paired with exactly two others, and
+     * the walk over it is a single path whose last strand is paired back to its first.
+     */
+    public boolean isBarrel() {
+        Map<BackboneSegment, List<BackboneSegment>> neighbours = this.getNeighbours();
+        if (neighbours.isEmpty()) {
+            return false;
+        }
+        for (List<BackboneSegment> partners : neighbours.values()) {
+            if (partners.size() != 2) {
+                return false;
+            }
+        }
+        List<List<BackboneSegment>> paths = this.getSheetPaths(neighbours);
+        if (paths.size() != 1) {
+            return false;
+        }
+        List<BackboneSegment> path = paths.get(0);
+        return neighbours.get(path.get(path.size() - 1)).contains(path.get(0));
+    }
+
+    // each step looks at each neighbour at most once, over all the walks sharing nextNeighbour
+    private void walk(BackboneSegment start, List<BackboneSegment> path, Set<BackboneSegment> visited,
+                      Map<BackboneSegment, List<BackboneSegment>> neighbours, Map<BackboneSegment, Integer> nextNeighbour) {
+        BackboneSegment current = start;
+        while (current != null) {
+            List<BackboneSegment> currentNeighbours = neighbours.get(current);
+            Integer startAt = nextNeighbour.get(current);
+            int k = (startAt == null) ? 0 : startAt.intValue();
+            BackboneSegment next = null;
+            while (k < currentNeighbours.size() && next == null) {
+                BackboneSegment neighbour = currentNeighbours.get(k++);
+                if (!visited.contains(neighbour)) {
+                    next = neighbour;
+                }
+            }
+            nextNeighbour.put(current, Integer.valueOf(k));
+            if (next != null) {
+                path.add(next);
+                visited.add(next);
+            }
+            current = next;
+        }
+    }
+
+    // the strands paired with each strand, both ways round, each once, in the order of the strand map
+    private Map<BackboneSegment, List<BackboneSegment>> getNeighbours() {
+        Map<BackboneSegment, List<BackboneSegment>> neighbours = new HashMap<BackboneSegment, List<BackboneSegment>>();
+        for (BackboneSegment strand : this.getStrands()) {
+            neighbours.put(strand, new ArrayList<BackboneSegment>());
+        }
+        for (BackboneSegment key : this.strandMap.keySet()) {
+            // a key always comes before its partners, so a pair can only be repeated in the same list
+            Set<BackboneSegment> seen = new HashSet<BackboneSegment>();
+            for (BackboneSegment partner : this.strandMap.get(key)) {
+                if (partner == key || !seen.add(partner)) {
+                    continue;
+                }
+                neighbours.get(key).add(partner);
+                neighbours.get(partner).add(key);
+            }
+        }
+        return neighbours;
+    }
+
     public void assignOrientationsToStrands() {
 
         // while we're at it, we might as well calculate the sheet axis
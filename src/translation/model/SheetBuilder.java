@@ -0,0 +1,299 @@
+package translation.model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Puts the pairs of bonded strands of a chain together into sheets, keeping the strands
+ * in a disjoint set, so that finding the sheet of a strand, and joining two sheets, take
+ * near constant time instead of a search through every sheet. The Sheet objects are only
+ * made at the end, by build().
+ *
+ * The sheets are the same as adding the pairs one at a time, in the same order, would
+ * give : a pair of new strands starts a sheet, numbered one more than the last sheet; a
+ * pair with one strand in a sheet is added to it; and a pair with strands in two sheets
+ * joins the second sheet onto the first. The partners of each strand are kept in the
+ * same order, too. The ladders of pairs added with addLadder go to their sheets, in the
+ * order they were added. A pair that starts a sheet, or goes into one, is logged.
+ */
+public class SheetBuilder {
+
+    private Chain chain;
+
+    // the number of each strand in the disjoint set
+    private Map<BackboneSegment, Integer> strandNumbers;
+
+    private int[] parents;
+
+    private int[] sizes;
+
+    // the sheet of each set, by its root
+    private List<PartialSheet> sheetsByRoot;
+
+    // the sheets in the order they were made, with any that have been joined to another at the end removed
+    private List<PartialSheet> sheets;
+
+    // the ladders of all the sheets, in the order they were added, which are only sorted into sheets by build()
+    private List<Ladder> ladders;
+
+    private Logger logger;
+
+    /**
+     * Starts from the sheets that the chain already has, which build() replaces.
+     */
+    public SheetBuilder(Chain chain) {
+        this.chain = chain;
+        this.strandNumbers = new HashMap<BackboneSegment, Integer>();
+        this.parents = new int[16];
+        this.sizes = new int[16];
+        this.sheetsByRoot = new ArrayList<PartialSheet>();
+        this.sheets = new ArrayList<PartialSheet>();
+        this.ladders = new ArrayList<Ladder>();
+        this.logger = Logger.getLogger("translation.FoldAnalyser");
+
+        Iterator<Sheet> existingSheets = chain.sheetIterator();
+        while (existingSheets.hasNext()) {
+            Sheet existing = existingSheets.next();
+            PartialSheet sheet = new PartialSheet(existing.getNumber());
+            this.ladders.addAll(existing.getLadders());
+            int root = -1;
+            Iterator<BackboneSegment> keys = existing.iterator();
+            while (keys.hasNext()) {
+                BackboneSegment key = keys.next();
+                List<BackboneSegment> partners = new ArrayList<BackboneSegment>(existing.getPartners(key));
+                sheet.partners.put(key, partners);
+                root = this.join(root, this.find(key));
+                for (int i = 0; i < partners.size(); i++) {
+                    root = this.join(root, this.find(partners.get(i)));
+                }
+            }
+            if (root != -1) {
+                this.sheetsByRoot.set(root, sheet);
+            }
+            this.sheets.add(sheet);
+        }
+    }
+
+    // add the strands of a ladder, as addStrandPair, keeping the ladder with the sheet
+    public void addLadder(Ladder ladder) {
+        this.addStrandPair(ladder.getFirst(), ladder.getSecond());
+        this.ladders.add(ladder);
+    }
+
+    public void addStrandPair(BackboneSegment first, BackboneSegment second) {
+        int firstRoot = this.find(first);
+        int secondRoot = this.find(second);
+        PartialSheet firstSheet = this.sheetsByRoot.get(firstRoot);
+        PartialSheet secondSheet = this.sheetsByRoot.get(secondRoot);
+
+        if (firstSheet == null && secondSheet == null) {
+            PartialSheet sheet = new PartialSheet(this.nextSheetNumber());
+            sheet.addPair(first, second);
+            this.sheets.add(sheet);
+            this.sheetsByRoot.set(this.union(firstRoot, secondRoot), sheet);
+            if (this.logger.isLoggable(Level.INFO)) {
+                this.logger.info("Adding " + first + " and " + second + " to new sheet");
+            }
+        } else if (firstSheet == null) {
+            if (this.logger.isLoggable(Level.INFO)) {
+                this.logger.info("Adding " + first + " and " + second + " to " + secondSheet);
+            }
+            secondSheet.addPair(first, second);
+            this.sheetsByRoot.set(this.union(firstRoot, secondRoot), secondSheet);
+        } else if (secondSheet == null) {
+            if (this.logger.isLoggable(Level.INFO)) {
+                this.logger.info("Adding " + first + " and " + second + " to " + firstSheet);
+            }
+            firstSheet.addPair(first, second);
+            this.sheetsByRoot.set(this.union(firstRoot, secondRoot), firstSheet);
+        } else if (firstSheet == secondSheet) {
+            // this edge closes a barrel
+            firstSheet.addPair(first, second);
+        } else {
+            // the second sheet is joined onto the first
+            firstSheet.addPair(first, second);
+            firstSheet.extend(secondSheet);
+            secondSheet.joined = true;
+            this.sheetsByRoot.set(this.union(firstRoot, secondRoot), firstSheet);
+        }
+    }
+
+    /**
+     * Replaces the sheets of the chain with the sheets built, in the order they were made.
+     */
+    public void build() {
+        List<Sheet> oldSheets = new ArrayList<Sheet>();
+        Iterator<Sheet> existingSheets = this.chain.sheetIterator();
+        while (existingSheets.hasNext()) {
+            oldSheets.add(existingSheets.next());
+        }
+        for (Sheet oldSheet : oldSheets) {
+            this.chain.removeSheet(oldSheet);
+        }
+
+        Map<PartialSheet, Sheet> built = new HashMap<PartialSheet, Sheet>();
+        for (PartialSheet partialSheet : this.sheets) {
+            if (partialSheet.joined) {
+                continue;
+            }
+            Sheet sheet = new Sheet(partialSheet.number);
+            built.put(partialSheet, sheet);
+            for (Map.Entry<BackboneSegment, List<BackboneSegment>> entry : partialSheet.partners.entrySet()) {
+                List<BackboneSegment> partners = entry.getValue();
+                for (int i = 0; i < partners.size(); i++) {
+                    sheet.map(entry.getKey(), partners.get(i));
+                }
+            }
+            this.chain.addSheet(sheet);
+        }
+
+        for (Ladder ladder : this.ladders) {
+            built.get(this.sheetsByRoot.get(this.find(ladder.getFirst()))).getLadders().add(ladder);
+        }
+    }
+
+    // as Chain.createSheet, one more than the number of the last sheet still in the chain
+    private int nextSheetNumber() {
+        while (!this.sheets.isEmpty() && this.sheets.get(this.sheets.size() - 1).joined) {
+            this.sheets.remove(this.sheets.size() - 1);
+        }
+        if (this.sheets.isEmpty()) {
+            return 1;
+        }
+        return this.sheets.get(this.sheets.size() - 1).number + 1;
+    }
+
+    // the root of the set of a strand, adding it as a set of its own if it is new
+    private int find(BackboneSegment strand) {
+        Integer number = this.strandNumbers.get(strand);
+        if (number == null) {
+            int n = this.strandNumbers.size();
+            if (n == this.parents.length) {
+                int[] largerParents = new int[n * 2];
+                int[] largerSizes = new int[n * 2];
+                System.arraycopy(this.parents, 0, largerParents, 0, n);
+                System.arraycopy(this.sizes, 0, largerSizes, 0, n);
+                this.parents = largerParents;
+                this.sizes = largerSizes;
+            }
+            this.parents[n] = n;
+            this.sizes[n] = 1;
+            this.sheetsByRoot.add(null);
+            this.strandNumbers.put(strand, Integer.valueOf(n));
+            return n;
+        }
+
+        // with path halving
+        int i = number.intValue();
+        while (this.parents[i] != i) {
+            this.parents[i] = this.parents[this.parents[i]];
+            i = this.parents[i];
+        }
+        return i;
+    }
+
+    // join the sets of two roots, the smaller under the larger, returning the new root
+    private int union(int a, int b) {
+        if (a == b) {
+            return a;
+        }
+        if (this.sizes[a] < this.sizes[b]) {
+            int swap = a;
+            a = b;
+            b = swap;
+        }
+        this.parents[b] = a;
+        this.sizes[a] += this.sizes[b];
+        this.sheetsByRoot.set(b, null);
+        return a;
+    }
+
+    // as union, but where a may be -1 for no set yet
+    private int join(int a, int b) {
+        return (a == -1) ? b : this.union(a, b);
+    }
+
+    /**
+     * A sheet while it is being built : its number, and the partners of each strand, as
+     * Sheet keeps them.
+     */
+    private static class PartialSheet {
+
+        private int number;
+
+        private Map<BackboneSegment, List<BackboneSegment>> partners;
+
+        // if this has been joined onto another sheet
+        private boolean joined;
+
+        public PartialSheet(int number) {
+            this.number = number;
+            this.partners = new HashMap<BackboneSegment, List<BackboneSegment>>();
+            this.joined = false;
+        }
+
+        // as Sheet.addPair, mapping the strand that comes first to the other
+        public void addPair(BackboneSegment first, BackboneSegment second) {
+            if (first.compareTo(second) < 0) {
+                this.map(first, second);
+            } else {
+                this.map(second, first);
+            }
+        }
+
+        private void map(BackboneSegment key, BackboneSegment partner) {
+            List<BackboneSegment> values = this.partners.get(key);
+            if (values == null) {
+                values = new ArrayList<BackboneSegment>();
+                this.partners.put(key, values);
+            }
+            values.add(partner);
+        }
+
+        // as Sheet.extend, adding the partners of the other sheet after those of this one,
+        // but going through whichever sheet has fewer strands
+        public void extend(PartialSheet other) {
+            if (this.partners.size() >= other.partners.size()) {
+                for (Map.Entry<BackboneSegment, List<BackboneSegment>> entry : other.partners.entrySet()) {
+                    List<BackboneSegment> values = this.partners.get(entry.getKey());
+                    if (values == null) {
+                        this.partners.put(entry.getKey(), entry.getValue());
+                    } else {
+                        values.addAll(entry.getValue());
+                    }
+                }
+            } else {
+                for (Map.Entry<BackboneSegment, List<BackboneSegment>> entry : this.partners.entrySet()) {
+                    List<BackboneSegment> otherValues = other.partners.get(entry.getKey());
+                    if (otherValues != null) {
+                        entry.getValue().addAll(otherValues);
+                    }
+                    other.partners.put(entry.getKey(), entry.getValue());
+                }
+                this.partners = other.partners;
+            }
+            other.partners = null;
+        }
+
+        // as Sheet.toString, with the strands in order
+        public String toString() {
+            StringBuffer returnValue = new StringBuffer();
+            returnValue.append("Sheet (" + this.number + ") [");
+            for (Map.Entry<BackboneSegment, List<BackboneSegment>> entry : new TreeMap<BackboneSegment, List<BackboneSegment>>(this.partners).entrySet()) {
+                returnValue.append(entry.getKey());
+                for (BackboneSegment partner : entry.getValue()) {
+                    returnValue.append(" -> ").append(partner);
+                }
+                returnValue.append("\n");
+            }
+            returnValue.append("]");
+            return returnValue.toString();
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package translation.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * The pairs of strands of a chain that are joined by at least one hydrogen bond, found
+ * in one pass over the chain's HBondTable : each bond is mapped to the strands of its
+ * two residues, so the cost is in the number of bonds, not the number of pairs of strands.
+ *
+ * Strands are numbered in the order of the chain's backbone segments, and the pairs are
+ * in the order (first, second) with first before second, as a loop over each strand and
+ * the strands after it would find them. The Ladder of a pair is worked out from its
+ * bonds when it is asked for.
+ */
+public class StrandPairs {
+
+    private static final int PARALLEL = 0;
+
+    private static final int ANTIPARALLEL = 1;
+
+    private List<BackboneSegment> strands;
+
+    // the strand of each residue, by absolute number, or -1
+    private int[] strandOf;
+
+    private int size;
+
+    private int[] firsts;
+
+    private int[] seconds;
+
+    private int[] numberOfHBonds;
+
+    private int[] numberOfResidues;
+
+    private HBondTable table;
+
+    // the sorted (first, second, bond) keys, and the range of them for each pair
+    private long[] keys;
+
+    private int[] starts;
+
+    private int[] ends;
+
+    public StrandPairs(Chain chain) {
+        this.strands = new ArrayList<BackboneSegment>();
+        this.strandOf = new int[chain.length()];
+        Arrays.fill(this.strandOf, -1);
+        Iterator<BackboneSegment> segments = chain.backboneSegmentListIterator();
+        while (segments.hasNext()) {
+            BackboneSegment segment = segments.next();
+            if (!(segment instanceof Strand)) {
+                continue;
+            }
+            int strand = this.strands.size();
+            this.strands.add(segment);
+            for (Residue residue : segment.residues) {
+                this.strandOf[residue.getAbsoluteNumber()] = strand;
+            }
+        }
+
+        // (first, second, bond) packed so that sorting groups the bonds of each pair, in order
+        HBondTable table = chain.getHBondTable();
+        this.table = table;
+        long[] keys = new long[table.size()];
+        int numberOfKeys = 0;
+        for (int bond = 0; bond < table.size(); bond++) {
+            int a = this.strandOf[table.getDonor(bond)];
+            int b = this.strandOf[table.getAcceptor(bond)];
+            if (a == -1 || b == -1 || a == b) {
+                continue;
+            }
+            long pair = ((long) Math.min(a, b) << 16) | Math.max(a, b);
+            keys[numberOfKeys++] = (pair << 32) | bond;
+        }
+        Arrays.sort(keys, 0, numberOfKeys);
+        this.keys = keys;
+
+        this.firsts = new int[numberOfKeys];
+        this.seconds = new int[numberOfKeys];
+        this.numberOfHBonds = new int[numberOfKeys];
+        this.numberOfResidues = new int[numberOfKeys];
+        this.starts = new int[numberOfKeys];
+        this.ends = new int[numberOfKeys];
+        this.size = 0;
+        int start = 0;
+        while (start < numberOfKeys) {
+            long pair = keys[start] >>> 32;
+            int end = start + 1;
+            while (end < numberOfKeys && (keys[end] >>> 32) == pair) {
+                end++;
+            }
+            int first = (int) (pair >>> 16);
+            this.firsts[this.size] = first;
+            this.seconds[this.size] = (int) (pair & 0xFFFF);
+            this.numberOfHBonds[this.size] = end - start;
+            this.numberOfResidues[this.size] = this.countResidues(table, keys, start, end, first);
+            this.starts[this.size] = start;
+            this.ends[this.size] = end;
+            this.size++;
+            start = end;
+        }
+    }
+
+    // the residues of the first strand with a bond to the second, as counted by FoldAnalyser.bonded
+    private int countResidues(HBondTable table, long[] keys, int start, int end, int first) {
+        int[] residues = new int[end - start];
+        for (int k = start; k < end; k++) {
+            int bond = (int) (keys[k] & 0xFFFFFFFFL);
+            int donor = table.getDonor(bond);
+            residues[k - start] = (this.strandOf[donor] == first) ? donor : table.getAcceptor(bond);
+        }
+        Arrays.sort(residues);
+        int count = 0;
+        for (int i = 0; i < residues.length; i++) {
+            if (i == 0 || residues[i] != residues[i - 1]) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public int numberOfStrands() {
+        return this.strands.size();
+    }
+
+    public BackboneSegment getStrand(int strand) {
+        return this.strands.get(strand);
+    }
+
+    // the strand that a residue is in, or -1 if it is not in one
+    public int getStrandOf(Residue residue) {
+        return this.strandOf[residue.getAbsoluteNumber()];
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public BackboneSegment getFirst(int pair) {
+        return this.strands.get(this.firsts[pair]);
+    }
+
+    public BackboneSegment getSecond(int pair) {
+        return this.strands.get(this.seconds[pair]);
+    }
+
+    public int getFirstIndex(int pair) {
+        return this.firsts[pair];
+    }
+
+    public int getSecondIndex(int pair) {
+        return this.seconds[pair];
+    }
+
+    public int getNumberOfHBonds(int pair) {
+        return this.numberOfHBonds[pair];
+    }
+
+    public int getNumberOfResidues(int pair) {
+        return this.numberOfResidues[pair];
+    }
+
+    /**
+     * The ladder between the strands of a pair, from the bridges that their bonds make.
+     */
+    public Ladder getLadder(int pair) {
+        int first = this.firsts[pair];
+        int start = this.starts[pair];
+        int end = this.ends[pair];
+
+        // the bridges, as (type, i, j) packed so that sorting puts together any found twice
+        long[] bridges = new long[4 * (end - start)];
+        int numberOfBridges = 0;
+        int[] bondedFirsts = new int[end - start];
+        int[] bondedSeconds = new int[end - start];
+        for (int k = start; k < end; k++) {
+            int bond = (int) (this.keys[k] & 0xFFFFFFFFL);
+            int d = this.table.getDonor(bond);
+            int a = this.table.getAcceptor(bond);
+            boolean donorFirst = this.strandOf[d] == first;
+            bondedFirsts[k - start] = donorFirst ? d : a;
+            bondedSeconds[k - start] = donorFirst ? a : d;
+
+            // in the terms of DSSP, this bond is Hbond(a, d), from the C=O of a to the N-H of d
+            if (this.hasHBond(a, d)) {
+                numberOfBridges = this.addBridge(bridges, numberOfBridges, ANTIPARALLEL, a, d, pair);
+            }
+            if (this.hasHBond(a + 2, d - 2)) {
+                numberOfBridges = this.addBridge(bridges, numberOfBridges, ANTIPARALLEL, a + 1, d - 1, pair);
+            }
+            if (this.hasHBond(a + 2, d)) {
+                numberOfBridges = this.addBridge(bridges, numberOfBridges, PARALLEL, a + 1, d, pair);
+            }
+            if (this.hasHBond(a, d - 2)) {
+                numberOfBridges = this.addBridge(bridges, numberOfBridges, PARALLEL, a, d - 1, pair);
+            }
+        }
+        Arrays.sort(bridges, 0, numberOfBridges);
+
+        // split the distinct bridges by type
+        int[] parallelI = new int[numberOfBridges];
+        int[] parallelJ = new int[numberOfBridges];
+        int[] antiparallelI = new int[numberOfBridges];
+        int[] antiparallelJ = new int[numberOfBridges];
+        int numberOfParallel = 0;
+        int numberOfAntiparallel = 0;
+        for (int b = 0; b < numberOfBridges; b++) {
+            if (b > 0 && bridges[b] == bridges[b - 1]) {
+                continue;
+            }
+            int i = (int) ((bridges[b] >>> 21) & ((1 << 21) - 1));
+            int j = (int) (bridges[b] & ((1 << 21) - 1));
+            if ((bridges[b] >>> 42) == PARALLEL) {
+                parallelI[numberOfParallel] = i;
+                parallelJ[numberOfParallel++] = j;
+            } else {
+                antiparallelI[numberOfAntiparallel] = i;
+                antiparallelJ[numberOfAntiparallel++] = j;
+            }
+        }
+
+        char type;
+        if (numberOfAntiparallel > numberOfParallel) {
+            type = 'A';
+        } else if (numberOfParallel > numberOfAntiparallel) {
+            type = 'P';
+        } else {
+            type = this.getFirst(pair).getRelativeOrientation(this.getSecond(pair));
+        }
+
+        int[] is;
+        int[] js;
+        int count;
+        if (type == 'A' && numberOfAntiparallel > 0) {
+            is = antiparallelI;
+            js = antiparallelJ;
+            count = numberOfAntiparallel;
+        } else if (type == 'P' && numberOfParallel > 0) {
+            is = parallelI;
+            js = parallelJ;
+            count = numberOfParallel;
+        } else {
+            // no bridges of this type, so just use the bonded residues
+            is = bondedFirsts;
+            js = bondedSeconds;
+            count = end - start;
+        }
+
+        int firstStart = Integer.MAX_VALUE;
+        int firstEnd = Integer.MIN_VALUE;
+        int secondStart = Integer.MAX_VALUE;
+        int secondEnd = Integer.MIN_VALUE;
+        int[] registers = new int[count];
+        for (int b = 0; b < count; b++) {
+            firstStart = Math.min(firstStart, is[b]);
+            firstEnd = Math.max(firstEnd, is[b]);
+            secondStart = Math.min(secondStart, js[b]);
+            secondEnd = Math.max(secondEnd, js[b]);
+            registers[b] = (type == 'A') ? is[b] + js[b] : is[b] - js[b];
+        }
+        int bridgesOfType = (type == 'A') ? numberOfAntiparallel : numberOfParallel;
+        return new Ladder(this.getFirst(pair), this.getSecond(pair), type, firstStart, firstEnd, secondStart, secondEnd,
+                          StrandPairs.mostCommon(registers), bridgesOfType, end - start);
+    }
+
+    // add the bridge between residues x and y, if one is on each strand of the pair
+    private int addBridge(long[] bridges, int numberOfBridges, int type, int x, int y, int pair) {
+        if (x < 0 || y < 0 || x >= this.strandOf.length || y >= this.strandOf.length) {
+            return numberOfBridges;
+        }
+        int i;
+        int j;
+        if (this.strandOf[x] == this.firsts[pair] && this.strandOf[y] == this.seconds[pair]) {
+            i = x;
+            j = y;
+        } else if (this.strandOf[y] == this.firsts[pair] && this.strandOf[x] == this.seconds[pair]) {
+            i = y;
+            j = x;
+        } else {
+            return numberOfBridges;
+        }
+        bridges[numberOfBridges] = ((long) type << 42) | ((long) i << 21) | j;
+        return numberOfBridges + 1;
+    }
+
+    // if there is a bond from the N-H of the donor to the C=O of the acceptor
+    private boolean hasHBond(int donor, int acceptor) {
+        if (donor < 0 || acceptor < 0 || donor >= this.strandOf.length || acceptor >= this.strandOf.length) {
+            return false;
+        }
+        int end = this.table.donorEnd(donor);
+        for (int k = this.table.donorStart(donor); k < end; k++) {
+            if (this.table.getAcceptor(this.table.donorBond(k)) == acceptor) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // the most common value, or the smallest of those that are equally common
+    private static int mostCommon(int[] values) {
+        int[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int best = sorted[0];
+        int bestCount = 0;
+        int start = 0;
+        while (start < sorted.length) {
+            int end = start + 1;
+            while (end < sorted.length && sorted[end] == sorted[start]) {
+                end++;
+            }
+            if (end - start > bestCount) {
+                best = sorted[start];
+                bestCount = end - start;
+            }
+            start = end;
+        }
+        return best;
+    }
+}